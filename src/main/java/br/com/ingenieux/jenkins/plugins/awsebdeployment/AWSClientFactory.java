@@ -25,8 +25,19 @@ import com.amazonaws.services.s3.AmazonS3;
 import com.cloudbees.jenkins.plugins.awscredentials.AmazonWebServicesCredentials;
 import com.cloudbees.plugins.credentials.CredentialsMatchers;
 import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
 import com.cloudbees.plugins.credentials.domains.DomainRequirement;
-import hudson.ProxyConfiguration;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
 import hudson.security.ACL;
 import jenkins.model.Jenkins;
 import org.apache.commons.lang.reflect.ConstructorUtils;
@@ -36,12 +47,60 @@ import javax.security.auth.login.CredentialNotFoundException;
 import java.lang.reflect.InvocationTargetException;
 import java.net.URI;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static org.apache.commons.lang.StringUtils.defaultString;
 import static org.apache.commons.lang.StringUtils.isNotBlank;
 
 public class AWSClientFactory implements Constants {
+    /**
+     * Credentials, by credentialId
+     */
+    private static final Cache<String, AWSCredentialsProvider> CREDENTIALS = CacheBuilder.newBuilder()
+            .maximumSize(64)
+            .expireAfterWrite(15, TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * Evicted clients may still be in use by whoever got them without a lease, so they're shut down a while later
+     */
+    static final long SHUTDOWN_DELAY = TimeUnit.HOURS.toMillis(1);
+
+    private static final ScheduledExecutorService SHUTDOWN_EXECUTOR = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("awseb-client-shutdown-%d").build());
+
+    /**
+     * Clients (which are thread-safe), by service, credentials, region and proxy. Shut down once evicted, and no longer
+     * leased
+     */
+    private static final Cache<String, Object> CLIENTS = CacheBuilder.newBuilder()
+            .maximumSize(64)
+            .expireAfterAccess(1, TimeUnit.HOURS)
+            .removalListener(new RemovalListener<String, Object>() {
+                @Override
+                public void onRemoval(RemovalNotification<String, Object> notification) {
+                    shutdownLater(notification.getValue());
+                }
+            })
+            .build();
+
+    /**
+     * Deployments using each client leased
+     */
+    private static final Map<Object, Integer> LEASES = new IdentityHashMap<>();
+
+    /**
+     * Clients evicted while leased, to shut down once released
+     */
+    private static final Set<Object> EVICTED = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
 
     private AWSCredentialsProvider provider;
 
@@ -49,46 +108,140 @@ public class AWSClientFactory implements Constants {
 
     private String region;
 
+    /**
+     * Credentials and region, for sharing rate limiters
+     */
+    private String scope;
+
+    /**
+     * Proxy and tuning settings in use, for sharing clients
+     */
+    private String settingsKey;
+
     private AWSClientFactory(AWSCredentialsProvider provider, ClientConfiguration clientConfiguration,
-                             String region) {
+                             String region, String scope, String settingsKey) {
         this.provider = provider;
         this.clientConfiguration = clientConfiguration;
         this.region = region.toLowerCase();
+        this.scope = scope;
+        this.settingsKey = settingsKey;
     }
 
+    /**
+     * @param credentialsKey tells apart credentials sharing the same scope (blank for ones looked up here)
+     * @param proxySettings  proxy (null for none)
+     */
     private static AWSClientFactory getClientFactory(AWSCredentialsProvider provider,
-                                                     String awsRegion) {
+                                                     String awsRegion, String scope, String credentialsKey,
+                                                     ClientTuning clientTuning, ProxySettings proxySettings) {
         ClientConfiguration clientConfig = new ClientConfiguration();
+        String proxyKey = "";
 
-        Jenkins jenkins = Jenkins.get();
+        if (null != proxySettings) {
+            proxySettings.applyTo(clientConfig);
 
-        if (jenkins.proxy != null) {
-            ProxyConfiguration proxyConfig = jenkins.proxy;
-            clientConfig.setProxyHost(proxyConfig.name);
-            clientConfig.setProxyPort(proxyConfig.port);
-            if (proxyConfig.getUserName() != null) {
-                clientConfig.setProxyUsername(proxyConfig.getUserName());
-                clientConfig.setProxyPassword(proxyConfig.getPassword());
-            }
+            proxyKey = proxySettings.getKey();
         }
 
         clientConfig.setUserAgentPrefix("ingenieux CloudButler/" + Utils.getVersion());
 
-        return new AWSClientFactory(provider, clientConfig, awsRegion);
+        if (null != clientTuning) {
+            clientTuning.applyTo(clientConfig);
+        }
+
+        return new AWSClientFactory(provider, clientConfig, awsRegion, scope,
+                credentialsKey + "|" + proxyKey + "|" + clientTuning);
     }
 
+    /**
+     * Client Factory, with the global client tuning (if any)
+     */
     public static AWSClientFactory getClientFactory(String credentialsId, String awsRegion)
             throws CredentialNotFoundException {
-        AWSCredentialsProvider provider = new DefaultAWSCredentialsProviderChain();
+        AWSEBGlobalConfiguration globalConfiguration = AWSEBGlobalConfiguration.get();
+
+        return getClientFactory(credentialsId, awsRegion,
+                (null != globalConfiguration) ? globalConfiguration.getClientTuning() : null);
+    }
+
+    /**
+     * Client Factory
+     *
+     * @param clientTuning connection pool, timeouts and tcp settings (null for SDK defaults)
+     */
+    public static AWSClientFactory getClientFactory(final String credentialsId, String awsRegion,
+                                                    ClientTuning clientTuning)
+            throws CredentialNotFoundException {
+        AWSCredentialsProvider provider;
+
+        try {
+            provider = CREDENTIALS.get(defaultString(credentialsId), new Callable<AWSCredentialsProvider>() {
+                @Override
+                public AWSCredentialsProvider call() throws Exception {
+                    if (isNotBlank(credentialsId)) {
+                        return lookupNamedCredential(credentialsId);
+                    }
+
+                    return new DefaultAWSCredentialsProviderChain();
+                }
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), CredentialNotFoundException.class);
+
+            throw Throwables.propagate(e.getCause());
+        }
+
+        return getClientFactory(provider, awsRegion, defaultString(credentialsId) + "|" + awsRegion.toLowerCase(),
+                "", clientTuning, ProxySettings.current());
+    }
+
+    /**
+     * Client Factory for a deployment, which may run on an agent: there's no Jenkins instance there to look up
+     * credentials and proxy settings from, so they're resolved on the controller beforehand
+     *
+     * @param credentials   named credentials, resolved on the controller (null for the default ones)
+     * @param proxySettings proxy settings of the controller (null for none)
+     */
+    public static AWSClientFactory getClientFactory(String credentialsId, String awsRegion,
+                                                    ClientTuning clientTuning, ResolvedCredentials credentials,
+                                                    ProxySettings proxySettings)
+            throws CredentialNotFoundException {
+        if (null != Jenkins.getInstanceOrNull()) {
+            // On the controller, credentials are looked up (and refreshed) as usual
+            return getClientFactory(credentialsId, awsRegion, clientTuning);
+        }
+
+        String scope = defaultString(credentialsId) + "|" + awsRegion.toLowerCase();
+
+        if (null != credentials) {
+            return getClientFactory(credentials, awsRegion, scope, credentials.getKey(), clientTuning,
+                    proxySettings);
+        }
 
         if (isNotBlank(credentialsId)) {
-            provider = lookupNamedCredential(credentialsId);
+            throw new CredentialNotFoundException(credentialsId);
         }
 
-        return getClientFactory(provider, awsRegion);
+        return getClientFactory(new DefaultAWSCredentialsProviderChain(), awsRegion, scope, "", clientTuning,
+                proxySettings);
     }
 
-    private static AmazonWebServicesCredentials lookupNamedCredential(String credentialsId)
+    /**
+     * Effective HTTP settings of the clients
+     */
+    public String describeClientConfiguration() {
+        return ClientTuning.describe(clientConfiguration);
+    }
+
+    /**
+     * Forgets every cached credential and client (e.g., when credentials change)
+     */
+    public static void invalidateAll() {
+        CREDENTIALS.invalidateAll();
+        CLIENTS.invalidateAll();
+    }
+
+    static AmazonWebServicesCredentials lookupNamedCredential(String credentialsId)
             throws CredentialNotFoundException {
         final Jenkins jenkins = Jenkins.getInstanceOrNull();
 
@@ -111,8 +264,110 @@ public class AWSClientFactory implements Constants {
         return cred;
     }
 
+    private static void shutdownLater(final Object client) {
+        if (!(client instanceof AmazonWebServiceClient)) {
+            return;
+        }
+
+        SHUTDOWN_EXECUTOR.schedule(new Runnable() {
+            @Override
+            public void run() {
+                shutdownUnlessLeased(client);
+            }
+        }, SHUTDOWN_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Shuts down an evicted client, unless a deployment still uses it (then, it's shut down once released)
+     */
+    private static void shutdownUnlessLeased(Object client) {
+        synchronized (LEASES) {
+            if (LEASES.containsKey(client)) {
+                EVICTED.add(client);
+
+                return;
+            }
+        }
+
+        ((AmazonWebServiceClient) client).shutdown();
+    }
+
+    /**
+     * Releases a client leased, shutting it down if evicted meanwhile (and no one else leases it)
+     *
+     * @param client client (null is ignored)
+     */
+    public static void release(Object client) {
+        synchronized (LEASES) {
+            Integer count = LEASES.get(client);
+
+            if (null == count) {
+                return;
+            }
+
+            if (count > 1) {
+                LEASES.put(client, count - 1);
+
+                return;
+            }
+
+            LEASES.remove(client);
+
+            if (!EVICTED.remove(client)) {
+                return;
+            }
+        }
+
+        ((AmazonWebServiceClient) client).shutdown();
+    }
+
+    /**
+     * Gets a client, and keeps it from being shut down until released
+     *
+     * @see #release(Object)
+     */
+    public <T> T leaseService(Class<T> serviceClazz)
+            throws NoSuchMethodException, IllegalAccessException,
+            InvocationTargetException, InstantiationException {
+        T result = getService(serviceClazz);
+
+        synchronized (LEASES) {
+            Integer count = LEASES.get(result);
+
+            LEASES.put(result, (null == count) ? 1 : 1 + count);
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets a client, shared with everyone else using the same credentials, region and proxy
+     */
+    @SuppressWarnings({"unchecked"})
+    public <T> T getService(final Class<T> serviceClazz)
+            throws NoSuchMethodException, IllegalAccessException,
+            InvocationTargetException, InstantiationException {
+        String key = String.format("%s|%s|%s", serviceClazz.getName(), scope, settingsKey);
+
+        try {
+            return (T) CLIENTS.get(key, new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return newService(serviceClazz);
+                }
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), NoSuchMethodException.class);
+            Throwables.propagateIfInstanceOf(e.getCause(), IllegalAccessException.class);
+            Throwables.propagateIfInstanceOf(e.getCause(), InvocationTargetException.class);
+            Throwables.propagateIfInstanceOf(e.getCause(), InstantiationException.class);
+
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
     @SuppressWarnings({"unchecked", "deprecation"})
-    public <T> T getService(Class<T> serviceClazz)
+    private <T> T newService(Class<T> serviceClazz)
             throws NoSuchMethodException, IllegalAccessException,
             InvocationTargetException, InstantiationException {
 
@@ -126,10 +381,25 @@ public class AWSClientFactory implements Constants {
             newClientConfiguration = newClientConfiguration.withSignerOverride(null);
         }
 
+        ThrottlingRequestHandler throttlingRequestHandler = null;
+        ServiceEndpointFormatter service = ServiceEndpointFormatter.forClass(serviceClazz);
+
+        if (null != service) {
+            throttlingRequestHandler = new ThrottlingRequestHandler(service.getRateLimiter(scope));
+
+            newClientConfiguration = newClientConfiguration.withRetryPolicy(throttlingRequestHandler.newRetryPolicy());
+        }
+
         Object params[] = new Object[]{provider, newClientConfiguration};
 
         T resultObj = (T) ConstructorUtils.invokeConstructor(serviceClazz, params, paramTypes);
 
+        if (null != throttlingRequestHandler) {
+            ((AmazonWebServiceClient) resultObj).addRequestHandler(throttlingRequestHandler);
+        }
+
+        ((AmazonWebServiceClient) resultObj).addRequestHandler(new RequestMetricsHandler());
+
         if (DEFAULT_REGION.equals(defaultString(region, DEFAULT_REGION))) {
             return resultObj;
         } else {
@@ -178,21 +448,68 @@ public class AWSClientFactory implements Constants {
         }
     }
 
+    /**
+     * Drops cached credentials and clients whenever credentials (or the proxy settings) are saved
+     */
+    @Extension
+    public static class CredentialsChangeListener extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof SystemCredentialsProvider || o instanceof ProxyConfiguration
+                    || "credentials.xml".equals(file.getFile().getName())) {
+                invalidateAll();
+            }
+        }
+    }
+
     private enum ServiceEndpointFormatter {
-        ELASTICBEANSTALK(AWSElasticBeanstalk.class, "elasticbeanstalk.%s.amazonaws.com"),
-        S3(AmazonS3.class, "s3-%s.amazonaws.com");
+        ELASTICBEANSTALK(AWSElasticBeanstalk.class, "elasticbeanstalk.%s.amazonaws.com", 5, 10),
+        S3(AmazonS3.class, "s3-%s.amazonaws.com", 50, 100);
 
         final Class<?> serviceClass;
 
         final String serviceMask;
 
-        ServiceEndpointFormatter(Class<?> serviceClass, String serviceMask) {
+        /**
+         * Default budget: calls per second
+         */
+        final int rate;
+
+        /**
+         * Default budget: most calls in a burst
+         */
+        final int burst;
+
+        ServiceEndpointFormatter(Class<?> serviceClass, String serviceMask, int rate, int burst) {
             this.serviceClass = serviceClass;
             this.serviceMask = serviceMask;
+            this.rate = rate;
+            this.burst = burst;
         }
 
         public boolean matches(Object obj) {
             return serviceClass.isAssignableFrom(obj.getClass());
         }
+
+        static ServiceEndpointFormatter forClass(Class<?> clazz) {
+            for (ServiceEndpointFormatter formatter : values()) {
+                if (formatter.serviceClass.isAssignableFrom(clazz)) {
+                    return formatter;
+                }
+            }
+
+            return null;
+        }
+
+        /**
+         * Rate Limiter for this service. Budgets may be overridden with system properties (e.g.
+         * <code>br.com.ingenieux.jenkins.plugins.awsebdeployment.AWSClientFactory.elasticbeanstalk.rate</code>)
+         */
+        RateLimiter getRateLimiter(String scope) {
+            String prefix = AWSClientFactory.class.getName() + "." + name().toLowerCase() + ".";
+
+            return RateLimiter.of(name() + "|" + scope, Integer.getInteger(prefix + "rate", rate),
+                    Integer.getInteger(prefix + "burst", burst));
+        }
     }
 }
\ No newline at end of file
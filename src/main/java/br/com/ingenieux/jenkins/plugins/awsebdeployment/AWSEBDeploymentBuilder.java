@@ -19,6 +19,7 @@
 
 package br.com.ingenieux.jenkins.plugins.awsebdeployment;
 
+import br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd.RollingUpdate;
 import com.amazonaws.services.elasticbeanstalk.AWSElasticBeanstalk;
 import com.amazonaws.services.elasticbeanstalk.AWSElasticBeanstalkClient;
 import com.amazonaws.services.elasticbeanstalk.model.ApplicationDescription;
@@ -43,6 +44,7 @@ import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.BuildStepMonitor;
 import hudson.tasks.Builder;
 import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
 import jenkins.tasks.SimpleBuildStep;
 import lombok.Getter;
 import org.apache.commons.lang.StringUtils;
@@ -92,6 +94,131 @@ public class AWSEBDeploymentBuilder extends Builder implements SimpleBuildStep {
      // FIELDLIST CHECK
      */
 
+    @DataBoundSetter
+    public void setRollingUpdate(boolean rollingUpdate) {
+        config.setRollingUpdate(rollingUpdate);
+    }
+
+    @DataBoundSetter
+    public void setRollingWaves(String rollingWaves) {
+        config.setRollingWaves(rollingWaves);
+    }
+
+    @DataBoundSetter
+    public void setMaxParallel(Integer maxParallel) {
+        config.setMaxParallel(maxParallel);
+    }
+
+    @DataBoundSetter
+    public void setStopOnFailure(boolean stopOnFailure) {
+        config.setStopOnFailure(stopOnFailure);
+    }
+
+    @DataBoundSetter
+    public void setAdditionalRegions(String additionalRegions) {
+        config.setAdditionalRegions(additionalRegions);
+    }
+
+    @DataBoundSetter
+    public void setWarmStandby(boolean warmStandby) {
+        config.setWarmStandby(warmStandby);
+    }
+
+    @DataBoundSetter
+    public void setStreamUpload(boolean streamUpload) {
+        config.setStreamUpload(streamUpload);
+    }
+
+    @DataBoundSetter
+    public void setMultipartUpload(boolean multipartUpload) {
+        config.setMultipartUpload(multipartUpload);
+    }
+
+    @DataBoundSetter
+    public void setUploadPartSize(Integer uploadPartSize) {
+        config.setUploadPartSize(uploadPartSize);
+    }
+
+    @DataBoundSetter
+    public void setUploadConcurrency(Integer uploadConcurrency) {
+        config.setUploadConcurrency(uploadConcurrency);
+    }
+
+    @DataBoundSetter
+    public void setArchiveThreads(Integer archiveThreads) {
+        config.setArchiveThreads(archiveThreads);
+    }
+
+    @DataBoundSetter
+    public void setContentAddressedKeys(boolean contentAddressedKeys) {
+        config.setContentAddressedKeys(contentAddressedKeys);
+    }
+
+    @DataBoundSetter
+    public void setEntryCacheSize(Integer entryCacheSize) {
+        config.setEntryCacheSize(entryCacheSize);
+    }
+
+    @DataBoundSetter
+    public void setDeltaUpload(boolean deltaUpload) {
+        config.setDeltaUpload(deltaUpload);
+    }
+
+    @DataBoundSetter
+    public void setReproducibleArchive(boolean reproducibleArchive) {
+        config.setReproducibleArchive(reproducibleArchive);
+    }
+
+    @DataBoundSetter
+    public void setCompressionLevel(Integer compressionLevel) {
+        config.setCompressionLevel(compressionLevel);
+    }
+
+    @DataBoundSetter
+    public void setStoredExtensions(String storedExtensions) {
+        config.setStoredExtensions(storedExtensions);
+    }
+
+    @DataBoundSetter
+    public void setUseEbIgnore(boolean useEbIgnore) {
+        config.setUseEbIgnore(useEbIgnore);
+    }
+
+    @DataBoundSetter
+    public void setWaitTimeout(Integer waitTimeout) {
+        config.setWaitTimeout(waitTimeout);
+    }
+
+    @DataBoundSetter
+    public void setMaxConnections(Integer maxConnections) {
+        config.setMaxConnections(maxConnections);
+    }
+
+    @DataBoundSetter
+    public void setConnectionTimeout(Integer connectionTimeout) {
+        config.setConnectionTimeout(connectionTimeout);
+    }
+
+    @DataBoundSetter
+    public void setSocketTimeout(Integer socketTimeout) {
+        config.setSocketTimeout(socketTimeout);
+    }
+
+    @DataBoundSetter
+    public void setRequestTimeout(Integer requestTimeout) {
+        config.setRequestTimeout(requestTimeout);
+    }
+
+    @DataBoundSetter
+    public void setSocketBufferSize(Integer socketBufferSize) {
+        config.setSocketBufferSize(socketBufferSize);
+    }
+
+    @DataBoundSetter
+    public void setTcpKeepAlive(Boolean tcpKeepAlive) {
+        config.setTcpKeepAlive(tcpKeepAlive);
+    }
+
     @DataBoundSetter
     public void setSkipEnvironmentUpdates(boolean skipEnvironmentUpdates) {
         config.setSkipEnvironmentUpdates(skipEnvironmentUpdates);
@@ -172,6 +299,106 @@ public class AWSEBDeploymentBuilder extends Builder implements SimpleBuildStep {
         config.setCredentialId(credentialId);
     }
 
+    public boolean isRollingUpdate() {
+        return config.isRollingUpdate();
+    }
+
+    public String getRollingWaves() {
+        return config.getRollingWaves();
+    }
+
+    public Integer getMaxParallel() {
+        return config.getMaxParallel();
+    }
+
+    public boolean isStopOnFailure() {
+        return config.isStopOnFailure();
+    }
+
+    public String getAdditionalRegions() {
+        return config.getAdditionalRegions();
+    }
+
+    public boolean isWarmStandby() {
+        return config.isWarmStandby();
+    }
+
+    public boolean isStreamUpload() {
+        return config.isStreamUpload();
+    }
+
+    public boolean isMultipartUpload() {
+        return config.isMultipartUpload();
+    }
+
+    public Integer getUploadPartSize() {
+        return config.getUploadPartSize();
+    }
+
+    public Integer getUploadConcurrency() {
+        return config.getUploadConcurrency();
+    }
+
+    public Integer getArchiveThreads() {
+        return config.getArchiveThreads();
+    }
+
+    public boolean isContentAddressedKeys() {
+        return config.isContentAddressedKeys();
+    }
+
+    public Integer getEntryCacheSize() {
+        return config.getEntryCacheSize();
+    }
+
+    public boolean isDeltaUpload() {
+        return config.isDeltaUpload();
+    }
+
+    public boolean isReproducibleArchive() {
+        return config.isReproducibleArchive();
+    }
+
+    public Integer getCompressionLevel() {
+        return config.getCompressionLevel();
+    }
+
+    public String getStoredExtensions() {
+        return config.getStoredExtensions();
+    }
+
+    public boolean isUseEbIgnore() {
+        return config.isUseEbIgnore();
+    }
+
+    public Integer getWaitTimeout() {
+        return config.getWaitTimeout();
+    }
+
+    public Integer getMaxConnections() {
+        return config.getMaxConnections();
+    }
+
+    public Integer getConnectionTimeout() {
+        return config.getConnectionTimeout();
+    }
+
+    public Integer getSocketTimeout() {
+        return config.getSocketTimeout();
+    }
+
+    public Integer getRequestTimeout() {
+        return config.getRequestTimeout();
+    }
+
+    public Integer getSocketBufferSize() {
+        return config.getSocketBufferSize();
+    }
+
+    public Boolean getTcpKeepAlive() {
+        return config.getTcpKeepAlive();
+    }
+
     public boolean isSkipEnvironmentUpdates() {
         return config.isSkipEnvironmentUpdates();
     }
@@ -290,6 +517,10 @@ public class AWSEBDeploymentBuilder extends Builder implements SimpleBuildStep {
                     .withAll(creds);
         }
 
+        public ListBoxModel doFillTcpKeepAliveItems() {
+            return AWSEBGlobalConfiguration.tcpKeepAliveItems("(global setting)");
+        }
+
         public FormValidation doCheckAwsRegion(@QueryParameter String value) {
             if (value.contains("$")) {
                 return FormValidation.warning("Validation skipped due to parameter usage ('$')");
@@ -301,6 +532,21 @@ public class AWSEBDeploymentBuilder extends Builder implements SimpleBuildStep {
             return FormValidation.ok();
         }
 
+        public FormValidation doCheckAdditionalRegions(@QueryParameter String value) {
+            if (value.contains("$")) {
+                return FormValidation.warning("Validation skipped due to parameter usage ('$')");
+            }
+
+            for (String region : value.replaceAll("\\s", "").split(",")) {
+                if (!region.isEmpty() && !region.matches("^\\p{Alpha}{2}-(?:gov-)?\\p{Alpha}{4,}-\\d$")) {
+                    return FormValidation.error("'%s' doesn't look like a region, like {place}-{cardinal}-{number}",
+                            region);
+                }
+            }
+
+            return FormValidation.ok();
+        }
+
         public FormValidation doCheckApplicationName(@QueryParameter String value) {
             if (value.contains("$")) {
                 return FormValidation.warning("Validation skipped due to parameter usage ('$')");
@@ -313,6 +559,39 @@ public class AWSEBDeploymentBuilder extends Builder implements SimpleBuildStep {
             return FormValidation.ok();
         }
 
+        public FormValidation doCheckRollingWaves(@QueryParameter String value) {
+            if (value.contains("$")) {
+                return FormValidation.warning("Validation skipped due to parameter usage ('$')");
+            }
+
+            try {
+                RollingUpdate.waveSizes(value, 100);
+            } catch (IllegalArgumentException exc) {
+                return FormValidation.error(exc.getMessage());
+            }
+
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckUploadPartSize(@QueryParameter String value) {
+            if (StringUtils.isBlank(value)) {
+                return FormValidation.ok();
+            }
+
+            try {
+                int uploadPartSize = Integer.parseInt(value.trim());
+
+                if (uploadPartSize < Constants.MIN_UPLOAD_PART_SIZE || uploadPartSize > Constants.MAX_UPLOAD_PART_SIZE) {
+                    return FormValidation.error("Upload Part Size must be between %d and %d MiB",
+                            Constants.MIN_UPLOAD_PART_SIZE, Constants.MAX_UPLOAD_PART_SIZE);
+                }
+            } catch (NumberFormatException exc) {
+                return FormValidation.error("Not a number");
+            }
+
+            return FormValidation.ok();
+        }
+
         public FormValidation doCheckEnvironmentName(@QueryParameter String value, @QueryParameter boolean skipEnvironmentUpdates) {
             if (skipEnvironmentUpdates) {
                 return FormValidation.ok("Environment Updates Skipped");
@@ -456,12 +735,14 @@ public class AWSEBDeploymentBuilder extends Builder implements SimpleBuildStep {
         public FormValidation doValidateUpload(@QueryParameter("applicationName") String applicationName,
                                                @QueryParameter("bucketName") String bucketName,
                                                @QueryParameter("keyPrefix") String keyPrefix,
-                                               @QueryParameter("versionLabelFormat") String versionLabelFormat) {
+                                               @QueryParameter("versionLabelFormat") String versionLabelFormat,
+                                               @QueryParameter("contentAddressedKeys") boolean contentAddressedKeys) {
 
             String objectKey = Utils.formatPath("%s/%s-%s.zip",
                     defaultIfBlank(keyPrefix, "<ERROR: MISSING KEY PREFIX>"),
                     defaultIfBlank(applicationName, "<ERROR: MISSING APPLICATION NAME>"),
-                    defaultIfBlank(versionLabelFormat, "<ERROR: MISSING VERSION LABEL FORMAT>"));
+                    contentAddressedKeys ? "<SHA-256 OF ARCHIVE>" :
+                            defaultIfBlank(versionLabelFormat, "<ERROR: MISSING VERSION LABEL FORMAT>"));
 
             String targetPath = Util.escape(String.format("s3://%s/%s",
                     defaultIfBlank(bucketName, "[default account bucket for region]"),
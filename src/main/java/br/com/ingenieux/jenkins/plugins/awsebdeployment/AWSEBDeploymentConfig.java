@@ -17,6 +17,7 @@
 package br.com.ingenieux.jenkins.plugins.awsebdeployment;
 
 import lombok.*;
+import org.apache.commons.lang.SerializationUtils;
 import org.jenkinsci.plugins.tokenmacro.MacroEvaluationException;
 
 import java.io.IOException;
@@ -110,6 +111,147 @@ public class AWSEBDeploymentConfig implements Serializable {
    */
   private boolean skipEnvironmentUpdates;
 
+  /**
+   * Stream the Archive into a S3 Multipart Upload?
+   */
+  private boolean streamUpload;
+
+  /**
+   * Upload the Archive as a Parallel Multipart Upload?
+   */
+  private boolean multipartUpload;
+
+  /**
+   * Multipart Upload Part Size (in MiB)
+   */
+  private Integer uploadPartSize;
+
+  /**
+   * Max Number of Multipart Upload Parts in Flight
+   */
+  private Integer uploadConcurrency;
+
+  /**
+   * Number of Threads used to Compress the Archive
+   */
+  private Integer archiveThreads;
+
+  /**
+   * Name S3 Objects after their Contents (and skip identical uploads)?
+   */
+  private boolean contentAddressedKeys;
+
+  /**
+   * Max Size of the Compressed Entry Cache (in MiB)
+   */
+  private Integer entryCacheSize;
+
+  /**
+   * Reuse Unchanged Ranges of the Previous Bundle (via S3 UploadPartCopy)?
+   */
+  private boolean deltaUpload;
+
+  /**
+   * Build Reproducible Archives (sorted entries, normalized timestamps and permissions)?
+   */
+  private boolean reproducibleArchive;
+
+  /**
+   * Compression Level (0-9)
+   */
+  private Integer compressionLevel;
+
+  /**
+   * Extensions of Files to Store without Compression
+   */
+  private String storedExtensions;
+
+  /**
+   * Leave out Files Matched by .ebignore?
+   */
+  private boolean useEbIgnore;
+
+  /**
+   * Total Time to Wait for Environments (seconds)
+   */
+  private Integer waitTimeout;
+
+  /**
+   * Max HTTP Connections
+   */
+  private Integer maxConnections;
+
+  /**
+   * Connection Timeout (ms)
+   */
+  private Integer connectionTimeout;
+
+  /**
+   * Socket Timeout (ms)
+   */
+  private Integer socketTimeout;
+
+  /**
+   * Request Timeout (ms)
+   */
+  private Integer requestTimeout;
+
+  /**
+   * Socket Buffer Size Hint (bytes)
+   */
+  private Integer socketBufferSize;
+
+  /**
+   * Use TCP Keep-Alive? (null for the global setting)
+   */
+  private Boolean tcpKeepAlive;
+
+  /**
+   * Roll the Update out in Waves?
+   */
+  private boolean rollingUpdate;
+
+  /**
+   * Wave Sizes (e.g. 1,25%)
+   */
+  private String rollingWaves;
+
+  /**
+   * Max Environments Updated at Once
+   */
+  private Integer maxParallel;
+
+  /**
+   * Stop Rolling out on the First Failure?
+   */
+  private boolean stopOnFailure;
+
+  /**
+   * Additional Regions to Deploy to (comma-separated)
+   */
+  private String additionalRegions;
+
+  /**
+   * Zero Downtime: keep the former live environments around as (warm) standbys, and update those in place instead of cloning
+   */
+  private boolean warmStandby;
+
+  /**
+   * Copy for deploying to another region, into its own storage location
+   *
+   * @param awsRegion region
+   * @return copy
+   */
+  public AWSEBDeploymentConfig copyForRegion(String awsRegion) {
+    AWSEBDeploymentConfig result = (AWSEBDeploymentConfig) SerializationUtils.clone(this);
+
+    result.setAwsRegion(awsRegion);
+    result.setBucketName(null);
+    result.setAdditionalRegions(null);
+
+    return result;
+  }
+
   /**
    * Copy Factory
    *
@@ -133,7 +275,33 @@ public class AWSEBDeploymentConfig implements Serializable {
             .zeroDowntime(this.zeroDowntime)
             .sleepTime(this.sleepTime)
             .checkHealth(this.checkHealth)
+            .maxAttempts(this.maxAttempts)
             .skipEnvironmentUpdates(this.skipEnvironmentUpdates)
+            .streamUpload(this.streamUpload)
+            .multipartUpload(this.multipartUpload)
+            .uploadPartSize(this.uploadPartSize)
+            .uploadConcurrency(this.uploadConcurrency)
+            .archiveThreads(this.archiveThreads)
+            .contentAddressedKeys(this.contentAddressedKeys)
+            .entryCacheSize(this.entryCacheSize)
+            .deltaUpload(this.deltaUpload)
+            .reproducibleArchive(this.reproducibleArchive)
+            .compressionLevel(this.compressionLevel)
+            .storedExtensions(r.r(this.storedExtensions))
+            .useEbIgnore(this.useEbIgnore)
+            .waitTimeout(this.waitTimeout)
+            .maxConnections(this.maxConnections)
+            .connectionTimeout(this.connectionTimeout)
+            .socketTimeout(this.socketTimeout)
+            .requestTimeout(this.requestTimeout)
+            .socketBufferSize(this.socketBufferSize)
+            .tcpKeepAlive(this.tcpKeepAlive)
+            .rollingUpdate(this.rollingUpdate)
+            .rollingWaves(r.r(this.rollingWaves))
+            .maxParallel(this.maxParallel)
+            .stopOnFailure(this.stopOnFailure)
+            .additionalRegions(r.r(this.additionalRegions))
+            .warmStandby(this.warmStandby)
             .build();
   }
 }
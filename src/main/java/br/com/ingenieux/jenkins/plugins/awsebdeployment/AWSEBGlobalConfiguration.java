@@ -0,0 +1,169 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment;
+
+import hudson.Extension;
+import hudson.util.ListBoxModel;
+import jenkins.model.GlobalConfiguration;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.StaplerRequest;
+
+/**
+ * Global Settings of the Plugin: AWS Client tuning, which jobs may override
+ */
+@Extension
+public class AWSEBGlobalConfiguration extends GlobalConfiguration {
+    private Integer maxConnections;
+
+    private Integer connectionTimeout;
+
+    private Integer socketTimeout;
+
+    private Integer requestTimeout;
+
+    private Integer socketBufferSize;
+
+    /**
+     * Use TCP Keep-Alive? (null for the SDK default)
+     */
+    private Boolean tcpKeepAlive;
+
+    public AWSEBGlobalConfiguration() {
+        load();
+    }
+
+    /**
+     * Global Settings, or null when there's no Jenkins instance (e.g. on an agent)
+     */
+    public static AWSEBGlobalConfiguration get() {
+        if (null == Jenkins.getInstanceOrNull()) {
+            return null;
+        }
+
+        return GlobalConfiguration.all().get(AWSEBGlobalConfiguration.class);
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "AWS Elastic Beanstalk Deployment";
+    }
+
+    @Override
+    public boolean configure(StaplerRequest req, JSONObject json) throws FormException {
+        this.maxConnections = null;
+        this.connectionTimeout = null;
+        this.socketTimeout = null;
+        this.requestTimeout = null;
+        this.socketBufferSize = null;
+        this.tcpKeepAlive = null;
+
+        req.bindJSON(this, json);
+
+        save();
+
+        return true;
+    }
+
+    /**
+     * AWS Client Tuning
+     */
+    public ClientTuning getClientTuning() {
+        return ClientTuning.builder()
+                .maxConnections(maxConnections)
+                .connectionTimeout(connectionTimeout)
+                .socketTimeout(socketTimeout)
+                .requestTimeout(requestTimeout)
+                .socketBufferSize(socketBufferSize)
+                .tcpKeepAlive(tcpKeepAlive)
+                .build();
+    }
+
+    public Integer getMaxConnections() {
+        return maxConnections;
+    }
+
+    @DataBoundSetter
+    public void setMaxConnections(Integer maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public Integer getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    @DataBoundSetter
+    public void setConnectionTimeout(Integer connectionTimeout) {
+        this.connectionTimeout = connectionTimeout;
+    }
+
+    public Integer getSocketTimeout() {
+        return socketTimeout;
+    }
+
+    @DataBoundSetter
+    public void setSocketTimeout(Integer socketTimeout) {
+        this.socketTimeout = socketTimeout;
+    }
+
+    public Integer getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    @DataBoundSetter
+    public void setRequestTimeout(Integer requestTimeout) {
+        this.requestTimeout = requestTimeout;
+    }
+
+    public Integer getSocketBufferSize() {
+        return socketBufferSize;
+    }
+
+    @DataBoundSetter
+    public void setSocketBufferSize(Integer socketBufferSize) {
+        this.socketBufferSize = socketBufferSize;
+    }
+
+    public Boolean getTcpKeepAlive() {
+        return tcpKeepAlive;
+    }
+
+    @DataBoundSetter
+    public void setTcpKeepAlive(Boolean tcpKeepAlive) {
+        this.tcpKeepAlive = tcpKeepAlive;
+    }
+
+    public ListBoxModel doFillTcpKeepAliveItems() {
+        return tcpKeepAliveItems("(SDK default)");
+    }
+
+    /**
+     * Choices for TCP Keep-Alive: unset (blank), enabled or disabled
+     *
+     * @param unsetLabel what leaving it unset means
+     */
+    static ListBoxModel tcpKeepAliveItems(String unsetLabel) {
+        ListBoxModel result = new ListBoxModel();
+
+        result.add(unsetLabel, "");
+        result.add("Enabled", "true");
+        result.add("Disabled", "false");
+
+        return result;
+    }
+}
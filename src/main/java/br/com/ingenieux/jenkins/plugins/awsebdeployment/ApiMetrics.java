@@ -0,0 +1,390 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.io.PrintWriter;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * AWS API Call Metrics, per service and operation: calls, errors, retries, throttles, bytes moved and latency
+ *
+ * One is recorded per deployment step (see {@link RequestMetricsHandler}), merged into the deployment report, and
+ * then (on the controller) into {@link #CONTROLLER}, which aggregates every deployment since it started.
+ */
+@ExportedBean
+public class ApiMetrics implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Upper bounds of the latency histogram buckets (ms)
+     */
+    static final long[] LATENCY_BUCKETS = {5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000};
+
+    /**
+     * Every deployment this controller ran since it started
+     */
+    public static final ApiMetrics CONTROLLER = new ApiMetrics();
+
+    /**
+     * Counters exported, along with the latency histogram
+     */
+    enum Counter {
+        Calls("awseb_api_calls_total", "AWS API calls made"),
+        Errors("awseb_api_errors_total", "AWS API calls failed (after retries)"),
+        Retries("awseb_api_retries_total", "AWS API call retries"),
+        Throttles("awseb_api_throttles_total", "AWS API call retries due to throttling"),
+        BytesSent("awseb_api_sent_bytes_total", "Bytes sent to AWS APIs"),
+        BytesReceived("awseb_api_received_bytes_total", "Bytes received from AWS APIs");
+
+        final String metricName;
+
+        final String help;
+
+        Counter(String metricName, String help) {
+            this.metricName = metricName;
+            this.help = help;
+        }
+    }
+
+    private final ConcurrentMap<String, Operation> operations = new ConcurrentHashMap<>();
+
+    /**
+     * Records a call
+     *
+     * @param latency   how long it took, retries included (ms)
+     * @param failed    did it fail (after retries)?
+     * @param retries   retries made
+     * @param throttles retries due to throttling
+     */
+    public void record(String service, String operation, long latency, boolean failed, int retries, int throttles,
+                       long bytesSent, long bytesReceived) {
+        operationOf(service, operation).record(latency, failed, retries, throttles, bytesSent, bytesReceived);
+    }
+
+    /**
+     * Adds up the metrics of another
+     */
+    public void merge(ApiMetrics other) {
+        if (null == other) {
+            return;
+        }
+
+        for (Operation operation : other.operations.values()) {
+            operationOf(operation.service, operation.operation).merge(operation);
+        }
+    }
+
+    /**
+     * Operations, by service and name
+     */
+    @Exported
+    public List<Operation> getOperations() {
+        List<Operation> result = new ArrayList<>(operations.values());
+
+        Collections.sort(result, new Comparator<Operation>() {
+            @Override
+            public int compare(Operation o1, Operation o2) {
+                int result = o1.service.compareTo(o2.service);
+
+                return (0 != result) ? result : o1.operation.compareTo(o2.operation);
+            }
+        });
+
+        return result;
+    }
+
+    @Exported
+    public long getCalls() {
+        long result = 0;
+
+        for (Operation operation : operations.values()) {
+            result += operation.getCalls();
+        }
+
+        return result;
+    }
+
+    @Exported
+    public long getBytesSent() {
+        long result = 0;
+
+        for (Operation operation : operations.values()) {
+            result += operation.getBytesSent();
+        }
+
+        return result;
+    }
+
+    @Exported
+    public long getBytesReceived() {
+        long result = 0;
+
+        for (Operation operation : operations.values()) {
+            result += operation.getBytesReceived();
+        }
+
+        return result;
+    }
+
+    /**
+     * Writes these metrics in the Prometheus Text Format (version 0.0.4)
+     */
+    public void writePrometheus(PrintWriter w) {
+        List<Operation> operationList = getOperations();
+
+        for (Counter counter : Counter.values()) {
+            w.println("# HELP " + counter.metricName + " " + counter.help);
+            w.println("# TYPE " + counter.metricName + " counter");
+
+            for (Operation operation : operationList) {
+                w.println(String.format(Locale.ENGLISH, "%s{%s} %d", counter.metricName, operation.labels(),
+                        operation.get(counter)));
+            }
+        }
+
+        w.println("# HELP awseb_api_call_duration_seconds AWS API call latency, retries included");
+        w.println("# TYPE awseb_api_call_duration_seconds histogram");
+
+        for (Operation operation : operationList) {
+            long[] buckets;
+            long calls;
+            long latencySum;
+
+            synchronized (operation) {
+                buckets = operation.latencyBuckets.clone();
+                calls = operation.calls;
+                latencySum = operation.latencySum;
+            }
+
+            long cumulative = 0;
+
+            for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+                cumulative += buckets[i];
+
+                w.println(String.format(Locale.ENGLISH, "awseb_api_call_duration_seconds_bucket{%s,le=\"%s\"} %d",
+                        operation.labels(), seconds(LATENCY_BUCKETS[i]), cumulative));
+            }
+
+            w.println(String.format(Locale.ENGLISH, "awseb_api_call_duration_seconds_bucket{%s,le=\"+Inf\"} %d",
+                    operation.labels(), calls));
+            w.println(String.format(Locale.ENGLISH, "awseb_api_call_duration_seconds_sum{%s} %s",
+                    operation.labels(), seconds(latencySum)));
+            w.println(String.format(Locale.ENGLISH, "awseb_api_call_duration_seconds_count{%s} %d",
+                    operation.labels(), calls));
+        }
+
+        w.flush();
+    }
+
+    private static String seconds(long millis) {
+        return String.format(Locale.ENGLISH, "%.3f", millis / 1000.0);
+    }
+
+    private Operation operationOf(String service, String operation) {
+        String key = service + "|" + operation;
+        Operation result = operations.get(key);
+
+        if (null == result) {
+            operations.putIfAbsent(key, new Operation(service, operation));
+
+            result = operations.get(key);
+        }
+
+        return result;
+    }
+
+    /**
+     * Represents the Metrics of an Operation
+     */
+    @ExportedBean
+    public static class Operation implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final String service;
+
+        final String operation;
+
+        long calls;
+
+        long errors;
+
+        long retries;
+
+        long throttles;
+
+        long bytesSent;
+
+        long bytesReceived;
+
+        /**
+         * Total latency (ms)
+         */
+        long latencySum;
+
+        /**
+         * Calls per latency bucket (not cumulative), the ones slower than the last bound excluded
+         */
+        final long[] latencyBuckets = new long[LATENCY_BUCKETS.length];
+
+        Operation(String service, String operation) {
+            this.service = service;
+            this.operation = operation;
+        }
+
+        synchronized void record(long latency, boolean failed, int retries, int throttles, long bytesSent,
+                                 long bytesReceived) {
+            this.calls++;
+            this.errors += failed ? 1 : 0;
+            this.retries += retries;
+            this.throttles += throttles;
+            this.bytesSent += bytesSent;
+            this.bytesReceived += bytesReceived;
+            this.latencySum += latency;
+
+            for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+                if (latency <= LATENCY_BUCKETS[i]) {
+                    latencyBuckets[i]++;
+                    break;
+                }
+            }
+        }
+
+        void merge(Operation other) {
+            long[] otherBuckets;
+            long[] otherCounters;
+            long otherLatencySum;
+
+            synchronized (other) {
+                otherBuckets = other.latencyBuckets.clone();
+                otherCounters = new long[]{other.calls, other.errors, other.retries, other.throttles,
+                        other.bytesSent, other.bytesReceived};
+                otherLatencySum = other.latencySum;
+            }
+
+            synchronized (this) {
+                this.calls += otherCounters[0];
+                this.errors += otherCounters[1];
+                this.retries += otherCounters[2];
+                this.throttles += otherCounters[3];
+                this.bytesSent += otherCounters[4];
+                this.bytesReceived += otherCounters[5];
+                this.latencySum += otherLatencySum;
+
+                for (int i = 0; i < latencyBuckets.length; i++) {
+                    latencyBuckets[i] += otherBuckets[i];
+                }
+            }
+        }
+
+        synchronized long get(Counter counter) {
+            switch (counter) {
+                case Calls:
+                    return calls;
+                case Errors:
+                    return errors;
+                case Retries:
+                    return retries;
+                case Throttles:
+                    return throttles;
+                case BytesSent:
+                    return bytesSent;
+                default:
+                    return bytesReceived;
+            }
+        }
+
+        String labels() {
+            return String.format("service=\"%s\",operation=\"%s\"", escape(service), escape(operation));
+        }
+
+        private static String escape(String value) {
+            return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+        }
+
+        @Exported
+        public String getService() {
+            return service;
+        }
+
+        @Exported
+        public String getOperation() {
+            return operation;
+        }
+
+        @Exported
+        public synchronized long getCalls() {
+            return calls;
+        }
+
+        @Exported
+        public synchronized long getErrors() {
+            return errors;
+        }
+
+        @Exported
+        public synchronized long getRetries() {
+            return retries;
+        }
+
+        @Exported
+        public synchronized long getThrottles() {
+            return throttles;
+        }
+
+        @Exported
+        public synchronized long getBytesSent() {
+            return bytesSent;
+        }
+
+        @Exported
+        public synchronized long getBytesReceived() {
+            return bytesReceived;
+        }
+
+        /**
+         * Average latency (ms)
+         */
+        @Exported
+        public synchronized long getAverageLatency() {
+            return (0 == calls) ? 0 : latencySum / calls;
+        }
+
+        @Exported
+        public synchronized long getLatencySum() {
+            return latencySum;
+        }
+
+        /**
+         * Calls per latency bucket (see {@link ApiMetrics#LATENCY_BUCKETS}), not cumulative
+         */
+        @Exported
+        public synchronized long[] getLatencyBuckets() {
+            return latencyBuckets.clone();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment;
+
+import hudson.Extension;
+import hudson.model.RootAction;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Exposes the AWS API Call Metrics of every deployment this controller ran, in the Prometheus Text Format (i.e.,
+ * <code>/awseb-metrics/</code>)
+ */
+@Extension
+public class ApiMetricsAction implements RootAction {
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "AWS Elastic Beanstalk API Metrics";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "awseb-metrics";
+    }
+
+    public void doIndex(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        writePrometheus(rsp, ApiMetrics.CONTROLLER);
+    }
+
+    static void writePrometheus(StaplerResponse rsp, ApiMetrics apiMetrics) throws IOException {
+        rsp.setContentType(CONTENT_TYPE);
+        rsp.setHeader("Cache-Control", "no-cache");
+
+        PrintWriter w = rsp.getWriter();
+
+        apiMetrics.writePrometheus(w);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment;
+
+import hudson.Extension;
+import hudson.model.ManagementLink;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Shows (and lets administrators retry or dismiss) the cleanup carried out by the {@link CleanupService}
+ */
+@Extension
+public class CleanupManagementLink extends ManagementLink {
+    @Override
+    public String getIconFileName() {
+        return "notepad.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "AWS Elastic Beanstalk Cleanup";
+    }
+
+    @Override
+    public String getDescription() {
+        return "Termination of environments and deletion of templates left behind by Zero Downtime deployments";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "awseb-cleanup";
+    }
+
+    public List<CleanupTask> getTasks() {
+        CleanupService cleanupService = CleanupService.get();
+
+        return (null != cleanupService) ? cleanupService.getTasks() : Collections.<CleanupTask>emptyList();
+    }
+
+    @RequirePOST
+    public HttpResponse doRetry(@QueryParameter String id) {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+
+        CleanupService.get().retry(id);
+
+        return HttpResponses.redirectToDot();
+    }
+
+    @RequirePOST
+    public HttpResponse doDismiss(@QueryParameter String id) {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+
+        CleanupService.get().dismiss(id);
+
+        return HttpResponses.redirectToDot();
+    }
+}
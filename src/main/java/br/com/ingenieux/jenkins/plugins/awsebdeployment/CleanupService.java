@@ -0,0 +1,316 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment;
+
+import com.amazonaws.services.elasticbeanstalk.AWSElasticBeanstalk;
+import com.amazonaws.services.elasticbeanstalk.AWSElasticBeanstalkClient;
+import com.amazonaws.services.elasticbeanstalk.model.ApplicationDescription;
+import com.amazonaws.services.elasticbeanstalk.model.DeleteConfigurationTemplateRequest;
+import com.amazonaws.services.elasticbeanstalk.model.DescribeApplicationsRequest;
+import com.amazonaws.services.elasticbeanstalk.model.DescribeEnvironmentsRequest;
+import com.amazonaws.services.elasticbeanstalk.model.EnvironmentDescription;
+import com.amazonaws.services.elasticbeanstalk.model.EnvironmentStatus;
+import com.amazonaws.services.elasticbeanstalk.model.TerminateEnvironmentRequest;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.XmlFile;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import jenkins.model.Jenkins;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Carries out the cleanup left behind by deployments in the background, on the controller, so builds don't have to
+ * wait for it
+ *
+ * Tasks are kept on disk (and resumed on startup), run at most {@link #MAX_CONCURRENCY} at a time, and retried with
+ * exponential backoff up to {@link #MAX_ATTEMPTS} times. Those which keep failing stay around (as Failed) until
+ * retried or dismissed from the management page (i.e., {@link CleanupManagementLink}).
+ */
+@Extension
+public class CleanupService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CleanupService.class);
+
+    static final int MAX_CONCURRENCY = 2;
+
+    static final int MAX_ATTEMPTS = 8;
+
+    static final long BASE_DELAY = TimeUnit.SECONDS.toMillis(30);
+
+    static final long MAX_DELAY = TimeUnit.MINUTES.toMillis(30);
+
+    private final Map<String, CleanupTask> tasks = new LinkedHashMap<>();
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * Cleanup Service, or null when there's no Jenkins instance (e.g. on an agent)
+     */
+    public static CleanupService get() {
+        if (null == Jenkins.getInstanceOrNull()) {
+            return null;
+        }
+
+        return ExtensionList.lookup(CleanupService.class).get(CleanupService.class);
+    }
+
+    /**
+     * Resumes the tasks left from before a restart
+     */
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void resume() {
+        CleanupService cleanupService = get();
+
+        if (null != cleanupService) {
+            cleanupService.load();
+        }
+    }
+
+    /**
+     * Hands tasks over
+     */
+    public synchronized void submit(Collection<CleanupTask> newTasks) {
+        for (CleanupTask task : newTasks) {
+            if (task.isDone()) {
+                continue;
+            }
+
+            tasks.put(task.getId(), task);
+
+            schedule(task, 0);
+        }
+
+        save();
+    }
+
+    public synchronized List<CleanupTask> getTasks() {
+        return new ArrayList<>(tasks.values());
+    }
+
+    /**
+     * Retries a task which failed, from scratch
+     */
+    public synchronized void retry(String id) {
+        CleanupTask task = tasks.get(id);
+
+        if (null == task || CleanupTask.Status.Failed != task.getStatus()) {
+            return;
+        }
+
+        task.setStatus(CleanupTask.Status.Pending);
+        task.setAttempts(0);
+
+        schedule(task, 0);
+
+        save();
+    }
+
+    /**
+     * Forgets a task (unless it is running)
+     */
+    public synchronized void dismiss(String id) {
+        CleanupTask task = tasks.get(id);
+
+        if (null == task || CleanupTask.Status.Running == task.getStatus()) {
+            return;
+        }
+
+        tasks.remove(id);
+
+        save();
+    }
+
+    /**
+     * Delay before retrying, after a given number of attempts
+     */
+    static long delayFor(int attempts) {
+        return Math.min(MAX_DELAY, BASE_DELAY << Math.min(attempts - 1, 16));
+    }
+
+    void perform(String id) {
+        CleanupTask task;
+
+        synchronized (this) {
+            task = tasks.get(id);
+
+            if (null == task || CleanupTask.Status.Pending != task.getStatus()) {
+                return;
+            }
+
+            task.setStatus(CleanupTask.Status.Running);
+            task.setAttempts(1 + task.getAttempts());
+            task.setLastAttempt(System.currentTimeMillis());
+
+            save();
+        }
+
+        try {
+            AWSElasticBeanstalk awseb = AWSClientFactory.getClientFactory(task.getCredentialId(), task.getAwsRegion())
+                    .getService(AWSElasticBeanstalkClient.class);
+
+            if (null != task.getEnvironmentId()) {
+                terminateEnvironment(awseb, task);
+
+                synchronized (this) {
+                    task.setEnvironmentId(null);
+
+                    save();
+                }
+            }
+
+            if (null != task.getTemplateName()) {
+                deleteTemplate(awseb, task);
+
+                synchronized (this) {
+                    task.setTemplateName(null);
+
+                    save();
+                }
+            }
+
+            synchronized (this) {
+                tasks.remove(id);
+
+                save();
+            }
+        } catch (Exception exc) {
+            synchronized (this) {
+                task.setLastError(exc.toString());
+
+                if (task.getAttempts() < MAX_ATTEMPTS) {
+                    long delay = delayFor(task.getAttempts());
+
+                    LOGGER.info("Cleanup {} failed (attempt {}/{}). Retrying in {} ms", task.getDescription(),
+                            task.getAttempts(), MAX_ATTEMPTS, delay, exc);
+
+                    task.setStatus(CleanupTask.Status.Pending);
+
+                    schedule(task, delay);
+                } else {
+                    LOGGER.warn("Cleanup {} failed (attempt {}/{}). Giving up", task.getDescription(),
+                            task.getAttempts(), MAX_ATTEMPTS, exc);
+
+                    task.setStatus(CleanupTask.Status.Failed);
+                }
+
+                save();
+            }
+        }
+    }
+
+    private void terminateEnvironment(AWSElasticBeanstalk awseb, CleanupTask task) {
+        List<EnvironmentDescription> environments = awseb.describeEnvironments(new DescribeEnvironmentsRequest()
+                .withEnvironmentIds(task.getEnvironmentId()).withIncludeDeleted(false)).getEnvironments();
+
+        if (environments.isEmpty() || EnvironmentStatus.Terminating.toString().equals(environments.get(0).getStatus())) {
+            LOGGER.info("Environment {} was already finished", task.getEnvironmentId());
+
+            return;
+        }
+
+        LOGGER.info("Terminating environment {} ({})", task.getEnvironmentName(), task.getEnvironmentId());
+
+        awseb.terminateEnvironment(new TerminateEnvironmentRequest().withEnvironmentId(task.getEnvironmentId()));
+    }
+
+    private void deleteTemplate(AWSElasticBeanstalk awseb, CleanupTask task) {
+        List<ApplicationDescription> applications = awseb.describeApplications(new DescribeApplicationsRequest()
+                .withApplicationNames(task.getApplicationName())).getApplications();
+
+        if (applications.isEmpty() || !applications.get(0).getConfigurationTemplates().contains(task.getTemplateName())) {
+            LOGGER.info("Template {} was already deleted", task.getTemplateName());
+
+            return;
+        }
+
+        LOGGER.info("Deleting template {}", task.getTemplateName());
+
+        awseb.deleteConfigurationTemplate(new DeleteConfigurationTemplateRequest(task.getApplicationName(),
+                task.getTemplateName()));
+    }
+
+    private void schedule(final CleanupTask task, long delay) {
+        if (null == executor) {
+            ScheduledThreadPoolExecutor newExecutor = new ScheduledThreadPoolExecutor(MAX_CONCURRENCY,
+                    new ThreadFactoryBuilder().setNameFormat("awseb-cleanup-%d").setDaemon(true).build());
+
+            newExecutor.setRemoveOnCancelPolicy(true);
+
+            executor = newExecutor;
+        }
+
+        executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                perform(task.getId());
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized void load() {
+        XmlFile file = getConfigFile();
+
+        if (!file.exists()) {
+            return;
+        }
+
+        try {
+            for (CleanupTask task : (List<CleanupTask>) file.read()) {
+                tasks.put(task.getId(), task);
+
+                // Those running when it stopped are started over
+                if (CleanupTask.Status.Failed != task.getStatus()) {
+                    task.setStatus(CleanupTask.Status.Pending);
+
+                    schedule(task, 0);
+                }
+            }
+        } catch (IOException exc) {
+            LOGGER.warn("Unable to load {}", file, exc);
+        }
+    }
+
+    private synchronized void save() {
+        XmlFile file = getConfigFile();
+
+        try {
+            file.write(new ArrayList<>(tasks.values()));
+        } catch (IOException exc) {
+            LOGGER.warn("Unable to save {}", file, exc);
+        }
+    }
+
+    private XmlFile getConfigFile() {
+        return new XmlFile(Jenkins.XSTREAM2, new File(Jenkins.getInstance().getRootDir(),
+                CleanupService.class.getName() + ".xml"));
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment;
+
+import lombok.Data;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * Cleanup left behind by a deployment (i.e., the former environment and the configuration template of a Zero
+ * Downtime one, once its CNAMEs were swapped), carried out by the {@link CleanupService} on the controller
+ *
+ * Each step is cleared once done, so retries only carry out whatever is left.
+ */
+@Data
+public class CleanupTask implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public enum Status {
+        Pending,
+        Running,
+        Failed
+    }
+
+    private final String id = UUID.randomUUID().toString();
+
+    private final long created = System.currentTimeMillis();
+
+    /**
+     * Who asked for it (i.e., the Run)
+     */
+    private String origin;
+
+    private String credentialId;
+
+    private String awsRegion;
+
+    private String applicationName;
+
+    /**
+     * Environment to terminate (if any)
+     */
+    private String environmentId;
+
+    private String environmentName;
+
+    /**
+     * Configuration template to delete (if any)
+     */
+    private String templateName;
+
+    private Status status = Status.Pending;
+
+    private int attempts;
+
+    private long lastAttempt;
+
+    private String lastError;
+
+    public CleanupTask(String credentialId, String awsRegion, String applicationName) {
+        this.credentialId = credentialId;
+        this.awsRegion = awsRegion;
+        this.applicationName = applicationName;
+    }
+
+    public Date getCreatedAt() {
+        return new Date(created);
+    }
+
+    /**
+     * Nothing left to do?
+     */
+    public boolean isDone() {
+        return null == environmentId && null == templateName;
+    }
+
+    /**
+     * What is left to do
+     */
+    public String getDescription() {
+        StringBuilder result = new StringBuilder();
+
+        if (null != environmentId) {
+            result.append(String.format("Terminate environment %s (%s)", environmentName, environmentId));
+        }
+
+        if (null != templateName) {
+            result.append((result.length() > 0) ? ", delete" : "Delete").append(" template ").append(templateName);
+        }
+
+        return String.format("%s [%s/%s]", result, awsRegion, applicationName);
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment;
+
+import com.amazonaws.ClientConfiguration;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * HTTP Connection Pool, Timeouts and TCP Settings of AWS Clients
+ *
+ * Unset (null) values keep the SDK defaults.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ClientTuning implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Max Connections in the Pool
+     */
+    private Integer maxConnections;
+
+    /**
+     * Connection Timeout (ms)
+     */
+    private Integer connectionTimeout;
+
+    /**
+     * Socket Timeout (ms)
+     */
+    private Integer socketTimeout;
+
+    /**
+     * Request Timeout (ms)
+     */
+    private Integer requestTimeout;
+
+    /**
+     * Socket Send/Receive Buffer Size Hint (bytes)
+     */
+    private Integer socketBufferSize;
+
+    /**
+     * TCP Keep-Alive
+     */
+    private Boolean tcpKeepAlive;
+
+    /**
+     * Copy of these settings, with the ones set in another overriding them
+     *
+     * @param overrides overriding settings (may be null)
+     */
+    public ClientTuning overriddenBy(ClientTuning overrides) {
+        if (null == overrides) {
+            return new ClientTuning(maxConnections, connectionTimeout, socketTimeout, requestTimeout,
+                    socketBufferSize, tcpKeepAlive);
+        }
+
+        return new ClientTuning(
+                firstNonNull(overrides.maxConnections, maxConnections),
+                firstNonNull(overrides.connectionTimeout, connectionTimeout),
+                firstNonNull(overrides.socketTimeout, socketTimeout),
+                firstNonNull(overrides.requestTimeout, requestTimeout),
+                firstNonNull(overrides.socketBufferSize, socketBufferSize),
+                firstNonNull(overrides.tcpKeepAlive, tcpKeepAlive));
+    }
+
+    /**
+     * Applies the settings which are set
+     */
+    public void applyTo(ClientConfiguration clientConfiguration) {
+        if (null != maxConnections) {
+            clientConfiguration.setMaxConnections(maxConnections);
+        }
+
+        if (null != connectionTimeout) {
+            clientConfiguration.setConnectionTimeout(connectionTimeout);
+        }
+
+        if (null != socketTimeout) {
+            clientConfiguration.setSocketTimeout(socketTimeout);
+        }
+
+        if (null != requestTimeout) {
+            clientConfiguration.setRequestTimeout(requestTimeout);
+        }
+
+        if (null != socketBufferSize) {
+            clientConfiguration.setSocketBufferSizeHints(socketBufferSize, socketBufferSize);
+        }
+
+        if (null != tcpKeepAlive) {
+            clientConfiguration.setUseTcpKeepAlive(tcpKeepAlive);
+        }
+    }
+
+    /**
+     * Describes the effective settings of a client configuration
+     */
+    public static String describe(ClientConfiguration clientConfiguration) {
+        int[] socketBufferSizeHints = clientConfiguration.getSocketBufferSizeHints();
+
+        return String.format("maxConnections: %d, connectionTimeout: %d ms, socketTimeout: %d ms, " +
+                        "requestTimeout: %d ms, tcpKeepAlive: %s, socketBufferSize: %s",
+                clientConfiguration.getMaxConnections(), clientConfiguration.getConnectionTimeout(),
+                clientConfiguration.getSocketTimeout(), clientConfiguration.getRequestTimeout(),
+                clientConfiguration.useTcpKeepAlive(),
+                (socketBufferSizeHints[0] > 0) ? socketBufferSizeHints[0] + " bytes" : "(os default)");
+    }
+
+    private static <T> T firstNonNull(T first, T second) {
+        return (null != first) ? first : second;
+    }
+}
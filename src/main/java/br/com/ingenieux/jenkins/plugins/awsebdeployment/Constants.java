@@ -25,6 +25,17 @@ public interface Constants {
 
     int MAX_ENVIRONMENT_NAME_LENGTH = 40;
 
+    int MEGABYTE = 1024 * 1024;
+
+    int UPLOAD_PART_SIZE = 16;
+
+    int MIN_UPLOAD_PART_SIZE = 5;
+
+    // Under S3's 5 GiB part limit, and the largest (MiB-sized) part a byte[] buffer can hold
+    int MAX_UPLOAD_PART_SIZE = 2047;
+
+    int UPLOAD_CONCURRENCY = 4;
+
     String GREEN_HEALTH = "Green";
 
     String STATUS_READY = "Ready";
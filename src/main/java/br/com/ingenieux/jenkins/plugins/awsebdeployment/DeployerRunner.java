@@ -22,6 +22,7 @@ import hudson.Launcher;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.remoting.Future;
+import hudson.remoting.LocalChannel;
 import hudson.remoting.VirtualChannel;
 import org.jenkinsci.plugins.tokenmacro.MacroEvaluationException;
 
@@ -52,15 +53,55 @@ public class DeployerRunner {
         final DeployerContext
                 deployerContext = new DeployerContext(config, rootFileObject, listener);
 
+        // Global settings live on the controller, so they're resolved here
+        AWSEBGlobalConfiguration globalConfiguration = AWSEBGlobalConfiguration.get();
+        ClientTuning jobClientTuning = ClientTuning.builder()
+                .maxConnections(config.getMaxConnections())
+                .connectionTimeout(config.getConnectionTimeout())
+                .socketTimeout(config.getSocketTimeout())
+                .requestTimeout(config.getRequestTimeout())
+                .socketBufferSize(config.getSocketBufferSize())
+                .tcpKeepAlive(config.getTcpKeepAlive())
+                .build();
+
+        deployerContext.setClientTuning((null != globalConfiguration) ?
+                globalConfiguration.getClientTuning().overriddenBy(jobClientTuning) : jobClientTuning);
+
         final VirtualChannel channel = launcher.getChannel();
 
         if (null == channel)
             throw new IllegalStateException("Null Channel (?)");
 
-        final Future<Boolean>
-                booleanFuture =
+        // Neither credentials nor proxy settings can be looked up on agents
+        if (!(channel instanceof LocalChannel)) {
+            deployerContext.setCredentials(ResolvedCredentials.lookup(config.getCredentialId()));
+            deployerContext.setProxySettings(ProxySettings.current());
+        }
+
+        final Future<SlaveDeployerCallable.Result>
+                resultFuture =
                 channel.callAsync(new SlaveDeployerCallable(deployerContext));
 
-        return booleanFuture.get();
+        SlaveDeployerCallable.Result result = resultFuture.get();
+
+        DeploymentReportAction.addReport(build, result.getReport());
+
+        ApiMetrics.CONTROLLER.merge(result.getReport().getApiMetrics());
+
+        if (!result.getCleanupTasks().isEmpty()) {
+            for (CleanupTask cleanupTask : result.getCleanupTasks()) {
+                cleanupTask.setOrigin(build.getFullDisplayName());
+            }
+
+            CleanupService.get().submit(result.getCleanupTasks());
+
+            listener.getLogger().println(String.format("Handed %d cleanup task(s) over to the controller " +
+                    "(see Manage Jenkins / AWS Elastic Beanstalk Cleanup)", result.getCleanupTasks().size()));
+        }
+
+        if (null != result.getException())
+            throw result.getException();
+
+        return result.isAborted();
     }
 }
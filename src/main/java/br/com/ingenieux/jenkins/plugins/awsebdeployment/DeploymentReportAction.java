@@ -0,0 +1,119 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment;
+
+import br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd.DeploymentReport;
+import hudson.model.Api;
+import hudson.model.Run;
+import jenkins.model.RunAction2;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Deployment Timelines of a Run (one for each deployment it made), also exported as JSON (i.e.,
+ * <code>awseb/api/json?depth=3</code>), along with their AWS API Call Metrics (<code>awseb/prometheus</code>)
+ */
+@ExportedBean
+public class DeploymentReportAction implements RunAction2 {
+    private final List<DeploymentReport> reports = new ArrayList<>();
+
+    private transient Run<?, ?> run;
+
+    /**
+     * Attaches a report to a run
+     */
+    public static void addReport(Run<?, ?> run, DeploymentReport report) {
+        if (null == report) {
+            return;
+        }
+
+        synchronized (run) {
+            DeploymentReportAction action = run.getAction(DeploymentReportAction.class);
+
+            if (null == action) {
+                action = new DeploymentReportAction();
+
+                run.addAction(action);
+            }
+
+            action.add(report);
+        }
+    }
+
+    synchronized void add(DeploymentReport report) {
+        reports.add(report);
+    }
+
+    @Exported
+    public synchronized List<DeploymentReport> getReports() {
+        return Collections.unmodifiableList(new ArrayList<>(reports));
+    }
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    /**
+     * AWS API Call Metrics of the deployments of this run, in the Prometheus Text Format
+     */
+    public void doPrometheus(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        ApiMetrics apiMetrics = new ApiMetrics();
+
+        for (DeploymentReport report : getReports()) {
+            apiMetrics.merge(report.getApiMetrics());
+        }
+
+        ApiMetricsAction.writePrometheus(rsp, apiMetrics);
+    }
+
+    @Override
+    public void onAttached(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    @Override
+    public void onLoad(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return "clock.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Deployment Timeline";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "awseb";
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment;
+
+import com.amazonaws.ClientConfiguration;
+import hudson.ProxyConfiguration;
+import jenkins.model.Jenkins;
+
+import java.io.Serializable;
+
+import static org.apache.commons.lang.StringUtils.defaultString;
+
+/**
+ * Proxy Settings of the controller, which are handed over to deployments running on agents (where there's no
+ * Jenkins instance to look them up from)
+ */
+public class ProxySettings implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String host;
+
+    private final int port;
+
+    private final String userName;
+
+    private final String password;
+
+    ProxySettings(String host, int port, String userName, String password) {
+        this.host = host;
+        this.port = port;
+        this.userName = userName;
+        this.password = password;
+    }
+
+    /**
+     * Proxy Settings of the controller
+     *
+     * @return null when there's no proxy (or no Jenkins instance)
+     */
+    public static ProxySettings current() {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+
+        if (null == jenkins || null == jenkins.proxy) {
+            return null;
+        }
+
+        ProxyConfiguration proxyConfig = jenkins.proxy;
+
+        return new ProxySettings(proxyConfig.name, proxyConfig.port, proxyConfig.getUserName(),
+                proxyConfig.getPassword());
+    }
+
+    public void applyTo(ClientConfiguration clientConfig) {
+        clientConfig.setProxyHost(host);
+        clientConfig.setProxyPort(port);
+
+        if (userName != null) {
+            clientConfig.setProxyUsername(userName);
+            clientConfig.setProxyPassword(password);
+        }
+    }
+
+    /**
+     * Tells these settings apart (for sharing clients), without giving the password away
+     */
+    public String getKey() {
+        return String.format("%s:%d:%s:%08x", host, port, userName, defaultString(password).hashCode());
+    }
+}
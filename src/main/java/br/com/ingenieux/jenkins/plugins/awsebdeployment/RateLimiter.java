@@ -0,0 +1,149 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token Bucket Rate Limiter, shared (within this JVM) by every client of a given service, credentials and region
+ *
+ * Its rate adapts to throttling (AIMD): it's halved (at most once a second) whenever the service throttles a call,
+ * and grows back, a little on every successful call, up to the configured budget.
+ */
+public class RateLimiter {
+    private static final ConcurrentMap<String, RateLimiter> LIMITERS = new ConcurrentHashMap<>();
+
+    private static final long DECREASE_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private final double maxRate;
+
+    private final double minRate;
+
+    private final double burst;
+
+    /**
+     * Calls per second
+     */
+    private double rate;
+
+    /**
+     * Tokens available (negative when reserved ahead of time)
+     */
+    private double tokens;
+
+    private long lastRefill = System.nanoTime();
+
+    /**
+     * When the rate was last halved (System.nanoTime() may be negative, so it does not start at zero)
+     */
+    private long lastDecrease = System.nanoTime() - DECREASE_INTERVAL;
+
+    /**
+     * @param rate  calls per second
+     * @param burst most calls in a burst
+     */
+    RateLimiter(double rate, double burst) {
+        this.maxRate = rate;
+        this.minRate = rate / 16;
+        this.burst = Math.max(1, burst);
+        this.rate = rate;
+        this.tokens = this.burst;
+    }
+
+    /**
+     * Shared Rate Limiter
+     *
+     * @param scope service, credentials and region
+     * @param rate  budget: calls per second (only used when creating it)
+     * @param burst budget: most calls in a burst (only used when creating it)
+     */
+    public static RateLimiter of(String scope, double rate, double burst) {
+        RateLimiter result = LIMITERS.get(scope);
+
+        if (null == result) {
+            LIMITERS.putIfAbsent(scope, new RateLimiter(rate, burst));
+
+            result = LIMITERS.get(scope);
+        }
+
+        return result;
+    }
+
+    /**
+     * Takes a token, waiting for it when needed
+     *
+     * @return time waited, in nanoseconds
+     */
+    public long acquire() throws InterruptedException {
+        long wait = reserve();
+
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+
+        return wait;
+    }
+
+    /**
+     * Takes a token ahead of time (so callers are served in order)
+     *
+     * @return time to wait until it is available, in nanoseconds
+     */
+    synchronized long reserve() {
+        refill();
+
+        tokens -= 1;
+
+        return (tokens >= 0) ? 0 : (long) (-tokens / rate * TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /**
+     * A call went through: grow back towards the budget
+     */
+    public synchronized void onSuccess() {
+        refill();
+
+        rate = Math.min(maxRate, rate + maxRate / 20);
+    }
+
+    /**
+     * A call was throttled: slow down
+     */
+    public synchronized void onThrottled() {
+        long now = System.nanoTime();
+
+        refill();
+
+        if (now - lastDecrease >= DECREASE_INTERVAL) {
+            rate = Math.max(minRate, rate / 2);
+            lastDecrease = now;
+        }
+    }
+
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+
+        tokens = Math.min(burst, tokens + rate * (now - lastRefill) / TimeUnit.SECONDS.toNanos(1));
+        lastRefill = now;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.handlers.RequestHandler2;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the calls (and bytes) made by a client into the {@link ApiMetrics} of whoever is running: as clients are
+ * shared, it's up to each thread (and the threads it starts) to set the metrics to record into
+ */
+public class RequestMetricsHandler extends RequestHandler2 {
+    private static final InheritableThreadLocal<ApiMetrics> METRICS = new InheritableThreadLocal<>();
+
+    /**
+     * Call being made by the current thread
+     */
+    private static final ThreadLocal<Call> CALL = new ThreadLocal<>();
+
+    /**
+     * Records the calls made by the current thread (and the ones it starts from now on)
+     *
+     * @param metrics where to (null to stop recording)
+     */
+    public static void setMetrics(ApiMetrics metrics) {
+        if (null == metrics) {
+            METRICS.remove();
+        } else {
+            METRICS.set(metrics);
+        }
+    }
+
+    /**
+     * The call being made by the current thread is about to be retried
+     *
+     * @param throttled due to throttling?
+     */
+    static void onRetry(boolean throttled) {
+        Call call = CALL.get();
+
+        if (null != call) {
+            call.retries++;
+            call.throttles += throttled ? 1 : 0;
+        }
+    }
+
+    @Override
+    public void beforeRequest(Request<?> request) {
+        ApiMetrics metrics = METRICS.get();
+
+        if (null == metrics) {
+            CALL.remove();
+
+            return;
+        }
+
+        CALL.set(new Call(metrics, request.getServiceName(), nameOf(request.getOriginalRequest()),
+                contentLengthOf(request.getHeaders())));
+    }
+
+    @Override
+    public void afterResponse(Request<?> request, Response<?> response) {
+        finish(false, (null != response.getHttpResponse()) ?
+                contentLengthOf(response.getHttpResponse().getHeaders()) : 0);
+    }
+
+    @Override
+    public void afterError(Request<?> request, Response<?> response, Exception e) {
+        finish(true, 0);
+    }
+
+    private static void finish(boolean failed, long bytesReceived) {
+        Call call = CALL.get();
+
+        if (null == call) {
+            return;
+        }
+
+        CALL.remove();
+
+        call.metrics.record(call.service, call.operation,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - call.startTime), failed, call.retries,
+                call.throttles, call.bytesSent, bytesReceived);
+    }
+
+    static String nameOf(AmazonWebServiceRequest request) {
+        return (null == request) ? "Call" : request.getClass().getSimpleName().replaceFirst("Request$", "");
+    }
+
+    private static long contentLengthOf(Map<String, String> headers) {
+        if (null == headers) {
+            return 0;
+        }
+
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            if ("Content-Length".equalsIgnoreCase(entry.getKey())) {
+                try {
+                    return Long.parseLong(entry.getValue().trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Represents a Call being made
+     */
+    private static class Call {
+        final ApiMetrics metrics;
+
+        final String service;
+
+        final String operation;
+
+        final long bytesSent;
+
+        final long startTime = System.nanoTime();
+
+        int retries;
+
+        int throttles;
+
+        Call(ApiMetrics metrics, String service, String operation, long bytesSent) {
+            this.metrics = metrics;
+            this.service = service;
+            this.operation = operation;
+            this.bytesSent = bytesSent;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment;
+
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.AWSSessionCredentials;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.auth.BasicSessionCredentials;
+
+import javax.security.auth.login.CredentialNotFoundException;
+import java.io.Serializable;
+
+import static org.apache.commons.lang.StringUtils.defaultString;
+import static org.apache.commons.lang.StringUtils.isBlank;
+
+/**
+ * Named Credentials, resolved on the controller into keys, for deployments running on agents (where there's no
+ * Jenkins instance to look them up from)
+ *
+ * Session credentials (e.g. from an assumed role) can't be refreshed on the agent, so they last as long as the session.
+ */
+public class ResolvedCredentials implements AWSCredentialsProvider, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String accessKey;
+
+    private final String secretKey;
+
+    private final String sessionToken;
+
+    ResolvedCredentials(String accessKey, String secretKey, String sessionToken) {
+        this.accessKey = accessKey;
+        this.secretKey = secretKey;
+        this.sessionToken = sessionToken;
+    }
+
+    /**
+     * Looks up and resolves named credentials (on the controller)
+     *
+     * @return null for the default ones (i.e., blank credentialsId)
+     */
+    public static ResolvedCredentials lookup(String credentialsId) throws CredentialNotFoundException {
+        if (isBlank(credentialsId)) {
+            return null;
+        }
+
+        AWSCredentials credentials = AWSClientFactory.lookupNamedCredential(credentialsId).getCredentials();
+
+        return new ResolvedCredentials(credentials.getAWSAccessKeyId(), credentials.getAWSSecretKey(),
+                (credentials instanceof AWSSessionCredentials) ?
+                        ((AWSSessionCredentials) credentials).getSessionToken() : null);
+    }
+
+    @Override
+    public AWSCredentials getCredentials() {
+        if (null != sessionToken) {
+            return new BasicSessionCredentials(accessKey, secretKey, sessionToken);
+        }
+
+        return new BasicAWSCredentials(accessKey, secretKey);
+    }
+
+    @Override
+    public void refresh() {
+    }
+
+    /**
+     * Tells these credentials apart (for sharing clients), without giving the secrets away
+     */
+    public String getKey() {
+        return String.format("%s:%08x", accessKey, (secretKey + "|" + defaultString(sessionToken)).hashCode());
+    }
+}
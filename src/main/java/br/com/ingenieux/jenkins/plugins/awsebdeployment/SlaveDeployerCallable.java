@@ -17,14 +17,17 @@
 package br.com.ingenieux.jenkins.plugins.awsebdeployment;
 
 import java.io.Serializable;
+import java.util.List;
 
 import br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd.DeployerChain;
 import br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd.DeployerContext;
+import br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd.DeploymentReport;
 import jenkins.security.MasterToSlaveCallable;
 import lombok.AllArgsConstructor;
+import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 
-public class SlaveDeployerCallable extends MasterToSlaveCallable<Boolean, Exception>
+public class SlaveDeployerCallable extends MasterToSlaveCallable<SlaveDeployerCallable.Result, Exception>
     implements Serializable {
 
   private static final long serialVersionUID = 1L;
@@ -36,9 +39,35 @@ public class SlaveDeployerCallable extends MasterToSlaveCallable<Boolean, Except
   }
 
   @Override
-  public Boolean call() throws Exception {
+  public Result call() throws Exception {
     DeployerChain deployerChain = new DeployerChain(deployerContext);
 
-    return deployerChain.perform();
+    try {
+      boolean aborted = deployerChain.perform();
+
+      return new Result(deployerChain.getReport(), aborted, null, deployerContext.getCleanupTasks());
+    } catch (Exception exc) {
+      return new Result(deployerChain.getReport(), true, exc, deployerContext.getCleanupTasks());
+    }
+  }
+
+  /**
+   * Outcome of a Deployment, along with its Report (which is brought back even when it fails)
+   */
+  @Getter
+  @AllArgsConstructor
+  public static class Result implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final DeploymentReport report;
+
+    final boolean aborted;
+
+    final Exception exception;
+
+    /**
+     * Cleanup left for the controller
+     */
+    final List<CleanupTask> cleanupTasks;
   }
 }
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryPolicy;
+import com.amazonaws.retry.RetryUtils;
+
+import java.io.PrintStream;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Puts a client behind a {@link RateLimiter}, and retries throttled calls (with backoff) instead of failing them
+ */
+public class ThrottlingRequestHandler extends RequestHandler2 {
+    /**
+     * Retries for throttled calls (other errors keep the SDK default)
+     */
+    static final int MAX_THROTTLED_RETRIES = 10;
+
+    static final long BASE_DELAY = 500;
+
+    static final long MAX_DELAY = TimeUnit.SECONDS.toMillis(20);
+
+    /**
+     * Where to log waits and retries. Clients are shared, so it's up to each (build) thread to set it
+     */
+    private static final ThreadLocal<PrintStream> LOGGER = new ThreadLocal<>();
+
+    private final RateLimiter rateLimiter;
+
+    public ThrottlingRequestHandler(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Logs waits and retries of calls made by the current thread
+     *
+     * @param logger where to (null to stop logging)
+     */
+    public static void setLogger(PrintStream logger) {
+        if (null == logger) {
+            LOGGER.remove();
+        } else {
+            LOGGER.set(logger);
+        }
+    }
+
+    @Override
+    public void beforeRequest(Request<?> request) {
+        long waited;
+
+        try {
+            waited = rateLimiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new AbortedException(e);
+        }
+
+        if (waited > 0) {
+            log("%s waited %d ms for a token (rate: %.2f/s)", RequestMetricsHandler.nameOf(request.getOriginalRequest()),
+                    TimeUnit.NANOSECONDS.toMillis(waited), rateLimiter.getRate());
+        }
+    }
+
+    @Override
+    public void afterResponse(Request<?> request, Response<?> response) {
+        rateLimiter.onSuccess();
+    }
+
+    /**
+     * Retry Policy: throttled calls are retried up to {@link #MAX_THROTTLED_RETRIES} times, with exponential backoff
+     * and full jitter. Other errors get the SDK defaults.
+     *
+     * The SDK calls {@link #beforeRequest(Request)} only once per call, so each retry takes its token from the backoff
+     * strategy instead (waiting for whichever is longer: the backoff or the token).
+     */
+    public RetryPolicy newRetryPolicy() {
+        return new RetryPolicy(new RetryPolicy.RetryCondition() {
+            @Override
+            public boolean shouldRetry(AmazonWebServiceRequest originalRequest, AmazonClientException exception,
+                                       int retriesAttempted) {
+                if (RetryUtils.isThrottlingException(exception)) {
+                    rateLimiter.onThrottled();
+
+                    RequestMetricsHandler.onRetry(true);
+
+                    return true;
+                }
+
+                boolean result = retriesAttempted < PredefinedRetryPolicies.DEFAULT_MAX_ERROR_RETRY
+                        && PredefinedRetryPolicies.DEFAULT_RETRY_CONDITION.shouldRetry(originalRequest, exception,
+                        retriesAttempted);
+
+                if (result) {
+                    RequestMetricsHandler.onRetry(false);
+                }
+
+                return result;
+            }
+        }, new RetryPolicy.BackoffStrategy() {
+            @Override
+            public long delayBeforeNextRetry(AmazonWebServiceRequest originalRequest, AmazonClientException exception,
+                                             int retriesAttempted) {
+                if (!RetryUtils.isThrottlingException(exception)) {
+                    return Math.max(reserveToken(),
+                            PredefinedRetryPolicies.DEFAULT_BACKOFF_STRATEGY.delayBeforeNextRetry(originalRequest,
+                                    exception, retriesAttempted));
+                }
+
+                long ceiling = Math.min(MAX_DELAY, BASE_DELAY << Math.min(retriesAttempted, 16));
+                long delay = Math.max(reserveToken(), ThreadLocalRandom.current().nextLong(ceiling + 1));
+
+                log("%s throttled. Retrying (%d/%d) in %d ms (rate: %.2f/s)",
+                        RequestMetricsHandler.nameOf(originalRequest),
+                        1 + retriesAttempted, MAX_THROTTLED_RETRIES, delay, rateLimiter.getRate());
+
+                return delay;
+            }
+        }, MAX_THROTTLED_RETRIES, false);
+    }
+
+    /**
+     * Takes a token for a retry
+     *
+     * @return time to wait until it is available, in milliseconds
+     */
+    long reserveToken() {
+        return TimeUnit.NANOSECONDS.toMillis(rateLimiter.reserve());
+    }
+
+    private static void log(String message, Object... args) {
+        PrintStream logger = LOGGER.get();
+
+        if (null != logger) {
+            logger.println(String.format(message, args));
+        }
+    }
+}
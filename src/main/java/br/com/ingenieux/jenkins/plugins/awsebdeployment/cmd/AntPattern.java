@@ -0,0 +1,222 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.StringTokenizer;
+import java.util.regex.Pattern;
+
+/**
+ * Ant-style Path Pattern (e.g. <code>**&#47;node_modules/**</code>), compiled once into regular expressions
+ *
+ * Follows the very same rules as Ant's DirectoryScanner (used by {@link hudson.util.DirScanner.Glob}): '*' and '?'
+ * never cross a '/', '**' matches zero or more directories, and a trailing '/' means '/**'.
+ */
+public class AntPattern {
+    /**
+     * Ant's Default Excludes (applied by {@link hudson.util.DirScanner.Glob})
+     */
+    static final List<String> DEFAULT_EXCLUDES = Arrays.asList(
+            "**/*~", "**/#*#", "**/.#*", "**/%*%", "**/._*",
+            "**/CVS", "**/CVS/**", "**/.cvsignore",
+            "**/SCCS", "**/SCCS/**", "**/vssver.scc",
+            "**/.svn", "**/.svn/**", "**/.DS_Store",
+            "**/.git", "**/.git/**", "**/.gitattributes", "**/.gitignore", "**/.gitmodules",
+            "**/.hg", "**/.hg/**", "**/.hgignore", "**/.hgsub", "**/.hgsubstate", "**/.hgtags",
+            "**/.bzr", "**/.bzr/**", "**/.bzrignore");
+
+    private static final String DEEP = "**";
+
+    private final String pattern;
+
+    private final String[] tokens;
+
+    /**
+     * One for each token, or null for '**'
+     */
+    private final Pattern[] tokenPatterns;
+
+    private final Pattern pathPattern;
+
+    /**
+     * When the pattern ends with '/**', matches the directories whose whole contents are matched
+     */
+    private final Pattern contentsPattern;
+
+    public AntPattern(String pattern) {
+        String normalized = pattern.replace('\\', '/');
+
+        if (normalized.endsWith("/")) {
+            normalized += DEEP;
+        }
+
+        List<String> tokenList = new ArrayList<>();
+
+        for (String token : normalized.split("/")) {
+            if (!token.isEmpty()) {
+                tokenList.add(token);
+            }
+        }
+
+        this.pattern = pattern;
+        this.tokens = tokenList.toArray(new String[tokenList.size()]);
+        this.tokenPatterns = new Pattern[tokens.length];
+
+        for (int i = 0; i < tokens.length; i++) {
+            tokenPatterns[i] = DEEP.equals(tokens[i]) ? null : Pattern.compile(toRegex(tokens[i]));
+        }
+
+        this.pathPattern = Pattern.compile(toRegex(tokenList));
+
+        if (!tokenList.isEmpty() && DEEP.equals(tokenList.get(tokenList.size() - 1))) {
+            this.contentsPattern = Pattern.compile(toRegex(tokenList.subList(0, tokenList.size() - 1)));
+        } else {
+            this.contentsPattern = null;
+        }
+    }
+
+    /**
+     * Parses a comma-separated list of patterns
+     */
+    public static List<AntPattern> parse(String patterns) {
+        List<AntPattern> result = new ArrayList<>();
+
+        if (null == patterns) {
+            return result;
+        }
+
+        StringTokenizer tokenizer = new StringTokenizer(patterns, ",");
+
+        while (tokenizer.hasMoreTokens()) {
+            String token = tokenizer.nextToken().trim();
+
+            if (!token.isEmpty()) {
+                result.add(new AntPattern(token));
+            }
+        }
+
+        return result;
+    }
+
+    public static List<AntPattern> parse(List<String> patterns) {
+        List<AntPattern> result = new ArrayList<>(patterns.size());
+
+        for (String pattern : patterns) {
+            result.add(new AntPattern(pattern));
+        }
+
+        return result;
+    }
+
+    /**
+     * Does it match a relative path ('/'-separated)?
+     */
+    public boolean matches(String path) {
+        return pathPattern.matcher(path).matches();
+    }
+
+    /**
+     * Could it match anything inside a directory?
+     *
+     * @param segments directory path segments
+     */
+    public boolean matchesStart(List<String> segments) {
+        for (int i = 0; i < segments.size(); i++) {
+            if (i >= tokens.length) {
+                return false;
+            }
+
+            if (null == tokenPatterns[i]) {
+                return true;
+            }
+
+            if (!tokenPatterns[i].matcher(segments.get(i)).matches()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Does it match everything inside a directory (so there's no need to look into it)?
+     */
+    public boolean matchesContentsOf(String directoryPath) {
+        return null != contentsPattern && contentsPattern.matcher(directoryPath).matches();
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+
+    private static String toRegex(List<String> tokens) {
+        StringBuilder result = new StringBuilder();
+        boolean needsSlash = false;
+
+        for (int i = 0; i < tokens.size(); i++) {
+            String token = tokens.get(i);
+
+            if (DEEP.equals(token)) {
+                if (i == tokens.size() - 1) {
+                    result.append(needsSlash ? "(?:/.*)?" : ".*");
+                } else {
+                    result.append(needsSlash ? "(?:/.*)?/" : "(?:.*/)?");
+                }
+
+                needsSlash = false;
+            } else {
+                if (needsSlash) {
+                    result.append('/');
+                }
+
+                result.append(toRegex(token));
+
+                needsSlash = true;
+            }
+        }
+
+        return result.toString();
+    }
+
+    private static String toRegex(String token) {
+        StringBuilder result = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+
+        for (char c : token.toCharArray()) {
+            if ('*' == c || '?' == c) {
+                if (literal.length() > 0) {
+                    result.append(Pattern.quote(literal.toString()));
+
+                    literal.setLength(0);
+                }
+
+                result.append(('*' == c) ? "[^/]*" : "[^/]");
+            } else {
+                literal.append(c);
+            }
+        }
+
+        if (literal.length() > 0) {
+            result.append(Pattern.quote(literal.toString()));
+        }
+
+        return result.toString();
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd;
+
+import com.amazonaws.services.elasticbeanstalk.AWSElasticBeanstalk;
+import com.amazonaws.services.elasticbeanstalk.model.DescribeEnvironmentsRequest;
+import com.amazonaws.services.elasticbeanstalk.model.DescribeEventsRequest;
+import com.amazonaws.services.elasticbeanstalk.model.DescribeEventsResult;
+import com.amazonaws.services.elasticbeanstalk.model.EnvironmentDescription;
+import com.amazonaws.services.elasticbeanstalk.model.EventDescription;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Polls an Application's Environments and Events on behalf of every build (of this JVM) deploying to it
+ *
+ * There's one instance per account (i.e., credentials), region and application. Both environments and events are
+ * fetched for the whole application, with a single request (single-flight: concurrent callers wait for the one in
+ * flight instead of issuing their own), and kept for a short TTL, so the API call volume depends on how many
+ * applications are being polled, rather than on how many builds are polling them.
+ *
+ * Each call still uses the client of its caller, so credentials are always the caller's own.
+ */
+public class ApplicationPoller {
+    static final long TTL = TimeUnit.SECONDS.toNanos(5);
+
+    /**
+     * Most events kept (oldest ones are dropped first)
+     */
+    static final int MAX_EVENTS = 4096;
+
+    /**
+     * Pollers, by credentialId, region and application. Builds keep theirs, so evicting one only means the next
+     * build polls with a new instance
+     */
+    private static final Cache<String, ApplicationPoller> POLLERS = CacheBuilder.newBuilder()
+            .maximumSize(256)
+            .expireAfterAccess(1, TimeUnit.HOURS)
+            .build();
+
+    private final String applicationName;
+
+    private final Object environmentsLock = new Object();
+
+    private List<EnvironmentDescription> environments;
+
+    private long environmentsFetchedAt;
+
+    private final Object eventsLock = new Object();
+
+    /**
+     * Events, oldest first
+     */
+    private final LinkedList<EventDescription> events = new LinkedList<>();
+
+    private final Set<String> eventKeys = new HashSet<>();
+
+    /**
+     * Events from this timestamp on are known
+     */
+    private long eventsFrom = Long.MAX_VALUE;
+
+    private long eventsFetchedAt;
+
+    private final AtomicInteger requestCount = new AtomicInteger();
+
+    ApplicationPoller(String applicationName) {
+        this.applicationName = applicationName;
+    }
+
+    /**
+     * Shared poller for an application
+     *
+     * @param credentialId credentials id (blank for the default ones)
+     * @param awsRegion    region
+     */
+    public static ApplicationPoller of(String credentialId, String awsRegion, final String applicationName) {
+        String key = String.format("%s|%s|%s", credentialId, awsRegion, applicationName);
+
+        try {
+            return POLLERS.get(key, new Callable<ApplicationPoller>() {
+                @Override
+                public ApplicationPoller call() {
+                    return new ApplicationPoller(applicationName);
+                }
+            });
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Describe calls made so far
+     */
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Describes (non-terminated) environments of the application
+     *
+     * @param environmentIds ids of environments wanted
+     * @return the ones found
+     */
+    public List<EnvironmentDescription> describeEnvironments(AWSElasticBeanstalk awseb,
+                                                             Collection<String> environmentIds) {
+        List<EnvironmentDescription> snapshot;
+
+        synchronized (environmentsLock) {
+            if (null == environments || System.nanoTime() - environmentsFetchedAt > TTL) {
+                environments = awseb.describeEnvironments(new DescribeEnvironmentsRequest()
+                        .withApplicationName(applicationName)
+                        .withIncludeDeleted(false)).getEnvironments();
+                environmentsFetchedAt = System.nanoTime();
+
+                requestCount.incrementAndGet();
+            }
+
+            snapshot = environments;
+        }
+
+        List<EnvironmentDescription> result = new ArrayList<>();
+
+        for (EnvironmentDescription environment : snapshot) {
+            if (environmentIds.contains(environment.getEnvironmentId())) {
+                result.add(environment);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Forgets the environments, so the next caller gets fresh ones. Call it after changing any of them.
+     */
+    public void invalidate() {
+        synchronized (environmentsLock) {
+            environments = null;
+        }
+    }
+
+    /**
+     * Describes the events of the application
+     *
+     * Once over MAX_EVENTS, events older than the ones kept aren't fetched again: callers asking for those get what's
+     * kept instead (and move on from there), as starting over on every poll would cost more calls than no cache at all
+     *
+     * @param startTime timestamp of the oldest event wanted (inclusive)
+     * @return the events since then, oldest first
+     */
+    public List<EventDescription> describeEvents(AWSElasticBeanstalk awseb, long startTime) {
+        synchronized (eventsLock) {
+            if (startTime < eventsFrom && events.size() < MAX_EVENTS) {
+                // Older than anything known: start over from there
+                events.clear();
+                eventKeys.clear();
+
+                fetchEvents(awseb, startTime);
+
+                eventsFrom = startTime;
+            } else if (System.nanoTime() - eventsFetchedAt > TTL) {
+                // Inclusive, as events sharing a timestamp may show up late
+                fetchEvents(awseb, events.isEmpty() ? eventsFrom : events.getLast().getEventDate().getTime());
+            }
+
+            while (events.size() > MAX_EVENTS) {
+                EventDescription eldest = events.removeFirst();
+
+                eventKeys.remove(keyOf(eldest));
+
+                eventsFrom = eldest.getEventDate().getTime() + 1;
+            }
+
+            List<EventDescription> result = new ArrayList<>();
+
+            for (EventDescription event : events) {
+                if (event.getEventDate().getTime() >= startTime) {
+                    result.add(event);
+                }
+            }
+
+            return result;
+        }
+    }
+
+    /**
+     * Fetches every page of events since a timestamp, appending the new ones
+     */
+    private void fetchEvents(AWSElasticBeanstalk awseb, long startTime) {
+        List<EventDescription> fetched = new ArrayList<>();
+        String nextToken = null;
+
+        do {
+            DescribeEventsResult page = awseb.describeEvents(new DescribeEventsRequest()
+                    .withApplicationName(applicationName)
+                    .withStartTime(new Date(startTime))
+                    .withNextToken(nextToken));
+
+            requestCount.incrementAndGet();
+
+            fetched.addAll(page.getEvents());
+
+            nextToken = page.getEvents().isEmpty() ? null : page.getNextToken();
+        } while (null != nextToken);
+
+        eventsFetchedAt = System.nanoTime();
+
+        // Newest first
+        for (int i = fetched.size() - 1; i >= 0; i--) {
+            EventDescription event = fetched.get(i);
+
+            if (eventKeys.add(keyOf(event))) {
+                events.add(event);
+            }
+        }
+    }
+
+    static String keyOf(EventDescription event) {
+        return event.getEventDate().getTime() + "|" + event.getEnvironmentName() + "|" + event.getSeverity() + "|"
+                + event.getRequestId() + "|" + event.getMessage();
+    }
+}
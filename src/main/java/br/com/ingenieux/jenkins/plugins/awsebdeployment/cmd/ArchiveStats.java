@@ -0,0 +1,152 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+
+/**
+ * Archive statistics, per class of file (i.e., extension)
+ */
+public class ArchiveStats {
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    private final ConcurrentMap<String, FileClass> fileClasses = new ConcurrentHashMap<>();
+
+    /**
+     * CPU Time used by the current thread (or wall time, when unsupported), in nanoseconds
+     */
+    static long cpuTime() {
+        if (THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported()) {
+            return THREAD_MX_BEAN.getCurrentThreadCpuTime();
+        }
+
+        return System.nanoTime();
+    }
+
+    /**
+     * Class of an entry: its lowercased extension, or an empty string
+     */
+    static String classOf(String entryName) {
+        String baseName = entryName.substring(entryName.lastIndexOf('/') + 1);
+        int dot = baseName.lastIndexOf('.');
+
+        return (dot > 0) ? baseName.substring(1 + dot).toLowerCase(Locale.ENGLISH) : "";
+    }
+
+    void record(ZipArchiveWriter.Entry entry, long cpuNanos) {
+        String key = classOf(entry.getName());
+        FileClass fileClass = fileClasses.get(key);
+
+        if (null == fileClass) {
+            fileClasses.putIfAbsent(key, new FileClass(key));
+
+            fileClass = fileClasses.get(key);
+        }
+
+        fileClass.record(entry, cpuNanos);
+    }
+
+    /**
+     * File classes, largest first
+     */
+    public List<FileClass> getFileClasses() {
+        List<FileClass> result = new ArrayList<>(fileClasses.values());
+
+        Collections.sort(result, new Comparator<FileClass>() {
+            @Override
+            public int compare(FileClass o1, FileClass o2) {
+                return Long.compare(o2.bytesIn, o1.bytesIn);
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Represents a Class of File
+     */
+    public static class FileClass {
+        final String extension;
+
+        int entries;
+
+        int storedEntries;
+
+        long bytesIn;
+
+        long bytesOut;
+
+        long cpuNanos;
+
+        FileClass(String extension) {
+            this.extension = extension;
+        }
+
+        synchronized void record(ZipArchiveWriter.Entry entry, long cpuNanos) {
+            this.entries++;
+            this.storedEntries += (ZipEntry.STORED == entry.getMethod()) ? 1 : 0;
+            this.bytesIn += entry.getSize();
+            this.bytesOut += entry.getCompressedSize();
+            this.cpuNanos += cpuNanos;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        public synchronized int getEntries() {
+            return entries;
+        }
+
+        public synchronized int getStoredEntries() {
+            return storedEntries;
+        }
+
+        public synchronized long getBytesIn() {
+            return bytesIn;
+        }
+
+        public synchronized long getBytesOut() {
+            return bytesOut;
+        }
+
+        public synchronized long getBytesSaved() {
+            return bytesIn - bytesOut;
+        }
+
+        public synchronized long getCpuMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(cpuNanos);
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("%s: %d entries (%d stored), %d bytes into %d bytes (%d saved), %d ms cpu",
+                    extension.isEmpty() ? "(no extension)" : "*." + extension, entries, storedEntries, bytesIn,
+                    bytesOut, bytesIn - bytesOut, getCpuMillis());
+        }
+    }
+}
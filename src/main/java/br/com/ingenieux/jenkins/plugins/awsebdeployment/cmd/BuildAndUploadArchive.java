@@ -17,55 +17,112 @@
 package br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd;
 
 import br.com.ingenieux.jenkins.plugins.awsebdeployment.Utils;
-import com.amazonaws.services.elasticbeanstalk.model.CreateStorageLocationResult;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.FilePath;
-import hudson.util.DirScanner;
+import hudson.Util;
+import hudson.util.FileVisitor;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.commons.lang.StringUtils;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
 
 import static org.apache.commons.lang.StringUtils.isBlank;
+import static org.apache.commons.lang.StringUtils.isNotBlank;
 
 /**
  * Builds and Uploads the Zip Archive
  */
 @SuppressFBWarnings({"EQ_DOESNT_OVERRIDE_EQUALS", "OBL_UNSATISFIED_OBLIGATION"})
 public class BuildAndUploadArchive extends DeployerCommand {
+    /**
+     * S3 User Metadata holding the archive SHA-256
+     */
+    static final String CONTENT_HASH_METADATA = "sha256";
+
     private File localArchive = null;
 
+    private boolean temporaryArchive = false;
+
+    /**
+     * Entries of the archive, when built by {@link ParallelZipArchiver}
+     */
+    private List<ZipArchiveWriter.Entry> archiveEntries = null;
+
+    private long centralDirectoryOffset = -1L;
+
     @Override
-    public boolean perform() throws Exception {
-        localArchive = getLocalFileObject(getRootFileObject());
+    public Set<DeployerContext.Key> requires() {
+        return EnumSet.of(DeployerContext.Key.Clients, DeployerContext.Key.Parameters);
+    }
 
-      log("Using archive '%s'", localArchive.getAbsolutePath());
+    @Override
+    public Set<DeployerContext.Key> provides() {
+        return EnumSet.of(DeployerContext.Key.Bundle);
+    }
 
-        if (isBlank(c.config.getBucketName())) {
-            log("bucketName not set. Calling createStorageLocation");
+    @Override
+    public boolean perform() throws Exception {
+        ensureBucketName();
 
-            final CreateStorageLocationResult storageLocation = getAwseb().createStorageLocation();
+        if (getConfig().isContentAddressedKeys()) {
+            if (getConfig().isStreamUpload()) {
+                log("Content-addressed keys need the archive hash before uploading. Not streaming.");
+            }
 
-            log("Using s3 Bucket '%s'", storageLocation.getS3Bucket());
+            uploadContentAddressed(getRootFileObject());
 
-            c.config.setBucketName(storageLocation.getS3Bucket());
+            return false;
         }
 
-        setObjectKey(Utils.formatPath("%s/%s-%s.zip", c.config.getKeyPrefix(), c.config.getApplicationName(),
+        useObjectKey(Utils.formatPath("%s/%s-%s.zip", c.config.getKeyPrefix(), c.config.getApplicationName(),
                 getVersionLabel()));
 
-        setS3ObjectPath("s3://" + Utils.formatPath("%s/%s", c.config.getBucketName(), getObjectKey()));
+        if (getConfig().isStreamUpload() && getConfig().isDeltaUpload()) {
+            log("Delta uploads need the whole archive before uploading. Not streaming.");
+        } else if (getConfig().isStreamUpload() && getRootFileObject().isDirectory()) {
+            streamArchive(getRootFileObject());
 
-        log("Uploading file %s as %s", localArchive.getName(), getS3ObjectPath());
+            return false;
+        }
+
+        localArchive = getLocalFileObject(getRootFileObject(), null);
+
+        log("Using archive '%s'", localArchive.getAbsolutePath());
 
-        getS3().putObject(c.config.getBucketName(), getObjectKey(), localArchive);
+        upload(localArchive, new ObjectMetadata());
 
         return false;
     }
 
     @Override
     public boolean release() {
-        if (null != localArchive && localArchive.exists()) {
+        if (temporaryArchive && null != localArchive && localArchive.exists()) {
             log("Cleaning up temporary file %s", localArchive.getAbsolutePath());
 
             FileUtils.deleteQuietly(localArchive);
@@ -74,23 +131,442 @@ public class BuildAndUploadArchive extends DeployerCommand {
         return false;
     }
 
-    private File getLocalFileObject(FilePath rootFileObject) throws Exception {
+    /**
+     * Hashes the archive while building it, naming the S3 Object after its SHA-256. When an object with the very
+     * same contents is already there, the upload is skipped.
+     */
+    private void uploadContentAddressed(FilePath rootFileObject) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+        localArchive = getLocalFileObject(rootFileObject, digest);
+
+        String contentHash = Util.toHexString(digest.digest());
+
+        log("Using archive '%s' (sha256: %s)", localArchive.getAbsolutePath(), contentHash);
+
+        useObjectKey(Utils.formatPath("%s/%s-%s.zip", c.config.getKeyPrefix(), c.config.getApplicationName(),
+                contentHash));
+
+        if (isAlreadyUploaded(contentHash)) {
+            log("%s already has identical contents. Skipping upload.", getS3ObjectPath());
+
+            return;
+        }
+
+        ObjectMetadata objectMetadata = new ObjectMetadata();
+
+        objectMetadata.addUserMetadata(CONTENT_HASH_METADATA, contentHash);
+
+        upload(localArchive, objectMetadata);
+    }
+
+    /**
+     * HEADs the S3 Object, comparing its recorded hash
+     *
+     * A 403 counts as absent too: it is what S3 answers for missing objects when there's no s3:ListBucket
+     * permission, and roles allowed to PutObject but not GetObject get it either way.
+     */
+    private boolean isAlreadyUploaded(String contentHash) {
+        try {
+            ObjectMetadata objectMetadata = getS3().getObjectMetadata(c.config.getBucketName(), getObjectKey());
+
+            return contentHash.equals(objectMetadata.getUserMetadata().get(CONTENT_HASH_METADATA));
+        } catch (AmazonS3Exception exc) {
+            if (404 == exc.getStatusCode()) {
+                return false;
+            }
+
+            if (403 == exc.getStatusCode()) {
+                log("Unable to check for %s (access denied). Uploading it anyway", getObjectKey());
+
+                return false;
+            }
+
+            throw exc;
+        }
+    }
+
+    private void useObjectKey(String objectKey) {
+        setObjectKey(objectKey);
+
+        setS3ObjectPath("s3://" + Utils.formatPath("%s/%s", c.config.getBucketName(), objectKey));
+    }
+
+    /**
+     * Uploads a local archive, reusing what is unchanged since the previous bundle when delta uploads are enabled
+     */
+    private void upload(File archive, ObjectMetadata objectMetadata) throws Exception {
+        BundleManifest manifest = null;
+
+        if (getConfig().isDeltaUpload()) {
+            if (null == archiveEntries) {
+                log("Delta uploads need the archive to be zipped from a local directory. Uploading it whole.");
+            } else {
+                manifest = BundleManifest.fromArchive(archive, archiveEntries, centralDirectoryOffset);
+            }
+        }
+
+        if (null == manifest || !uploadDelta(archive, objectMetadata, manifest)) {
+            uploadWhole(archive, objectMetadata);
+        }
+
+        if (null != manifest) {
+            saveManifest(manifest);
+        }
+    }
+
+    /**
+     * Uploads an archive, copying the ranges unchanged since the previous bundle server-side
+     *
+     * @return false when it couldn't be done, and the archive must be uploaded whole
+     */
+    private boolean uploadDelta(File archive, ObjectMetadata objectMetadata, BundleManifest manifest)
+            throws Exception {
+        BundleManifest previous = loadManifest();
+
+        if (null == previous) {
+            log("No previous bundle manifest at s3://%s/%s. Uploading it whole.", c.config.getBucketName(),
+                    getManifestKey());
+
+            return false;
+        }
+
+        DeltaUploader deltaUploader = new DeltaUploader(getS3(), getUploadPartSize() * MEGABYTE,
+                getUploadConcurrency());
+        List<DeltaUploader.Part> parts = deltaUploader.plan(previous, manifest);
+        long copiedBytes = (null != parts) ? DeltaUploader.getCopiedBytes(parts) : 0L;
+
+        if (0 == copiedBytes) {
+            log("Nothing large enough to reuse from s3://%s/%s. Uploading it whole.", previous.getBucketName(),
+                    previous.getObjectKey());
+
+            return false;
+        }
+
+        log("Uploading file %s as %s, reusing %d of %d bytes from s3://%s/%s (%d parts)", archive.getName(),
+                getS3ObjectPath(), copiedBytes, archive.length(), previous.getBucketName(), previous.getObjectKey(),
+                parts.size());
+
+        objectMetadata.setContentType("application/zip");
+
+        try {
+            MultipartUpload upload = deltaUploader.upload(archive, c.config.getBucketName(), getObjectKey(),
+                    objectMetadata, previous, parts);
+
+            log("Uploaded %d bytes (%d part attempts retried)", archive.length() - copiedBytes,
+                    upload.getRetriedParts());
+
+            return true;
+        } catch (IOException exc) {
+            log("Delta upload failed (%s). Uploading it whole.", exc.getMessage());
+
+            return false;
+        }
+    }
+
+    /**
+     * Uploads a local archive, either in a single PUT or as a parallel Multipart Upload
+     */
+    private void uploadWhole(File archive, ObjectMetadata objectMetadata) throws Exception {
+        if (!getConfig().isMultipartUpload() && !getConfig().isStreamUpload()) {
+            log("Uploading file %s as %s", archive.getName(), getS3ObjectPath());
+
+            getS3().putObject(new PutObjectRequest(c.config.getBucketName(), getObjectKey(), archive)
+                    .withMetadata(objectMetadata));
+
+            return;
+        }
+
+        log("Uploading file %s as %s (partSize=%d MiB, concurrency=%d)", archive.getName(), getS3ObjectPath(),
+                getUploadPartSize(), getUploadConcurrency());
+
+        objectMetadata.setContentType("application/zip");
+
+        MultipartUpload upload = new MultipartFileUploader(getS3(), getUploadPartSize() * MEGABYTE,
+                getUploadConcurrency()).upload(archive, c.config.getBucketName(), getObjectKey(), objectMetadata);
+
+        log("Uploaded %d bytes (%d part attempts retried)", archive.length(), upload.getRetriedParts());
+    }
+
+    /**
+     * Manifest of the latest bundle uploaded for this application
+     */
+    private String getManifestKey() {
+        return Utils.formatPath("%s/%s.manifest", c.config.getKeyPrefix(), c.config.getApplicationName());
+    }
+
+    /**
+     * Previous bundle manifest, or null when there's none (or it can't be used)
+     */
+    private BundleManifest loadManifest() throws IOException {
+        try (S3Object s3Object = getS3().getObject(c.config.getBucketName(), getManifestKey())) {
+            return BundleManifest.read(s3Object.getObjectContent());
+        } catch (AmazonS3Exception exc) {
+            if (404 == exc.getStatusCode()) {
+                return null;
+            }
+
+            throw exc;
+        } catch (IOException exc) {
+            log("Ignoring previous bundle manifest at s3://%s/%s (%s)", c.config.getBucketName(), getManifestKey(),
+                    exc.getMessage());
+
+            return null;
+        }
+    }
+
+    private void saveManifest(BundleManifest manifest) throws IOException {
+        String eTag = getS3().getObjectMetadata(c.config.getBucketName(), getObjectKey()).getETag();
+
+        manifest.setLocation(c.config.getBucketName(), getObjectKey(), eTag);
+
+        ByteArrayOutputStream manifestBytes = new ByteArrayOutputStream();
+
+        manifest.write(manifestBytes);
+
+        ObjectMetadata objectMetadata = new ObjectMetadata();
+
+        objectMetadata.setContentType("text/tab-separated-values");
+        objectMetadata.setContentLength(manifestBytes.size());
+
+        getS3().putObject(c.config.getBucketName(), getManifestKey(),
+                new ByteArrayInputStream(manifestBytes.toByteArray()), objectMetadata);
+
+        log("Saved bundle manifest (%d entries) as s3://%s/%s", manifest.getRecords().size(),
+                c.config.getBucketName(), getManifestKey());
+    }
+
+    /**
+     * Writes the archive straight into a S3 Multipart Upload, so compression and transfer overlap and no
+     * temporary file is needed
+     */
+    private void streamArchive(FilePath rootFileObject) throws Exception {
+        int partSize = getUploadPartSize();
+        int partsInFlight = getUploadConcurrency();
+
+        log("Streaming archive into %s (partSize=%d MiB, partsInFlight=%d)", getS3ObjectPath(), partSize,
+                partsInFlight);
+
+        MultipartUploadOutputStream uploadStream = new MultipartUploadOutputStream(getS3(),
+                c.config.getBucketName(), getObjectKey(), partSize * MEGABYTE, partsInFlight);
+
+        try {
+            // Archivers close their target stream even on failure, which would otherwise complete a partial upload
+            writeArchive(rootFileObject, new CloseShieldOutputStream(uploadStream));
+        } catch (Exception exc) {
+            log("Failure while streaming archive. Aborting multipart upload.");
+
+            uploadStream.abort();
+
+            throw exc;
+        }
+
+        uploadStream.close();
+
+        log("Uploaded %d bytes in %d parts (%d part attempts retried)", uploadStream.getBytesWritten(),
+                uploadStream.getPartCount(), uploadStream.getUpload().getRetriedParts());
+    }
+
+    /**
+     * Returns a local archive for the Root File Object. Local zip files are used in place, while anything else is
+     * written into a temporary file.
+     *
+     * @param digest when set, updated with the archive contents
+     */
+    private File getLocalFileObject(FilePath rootFileObject, MessageDigest digest) throws Exception {
+        if (!rootFileObject.isDirectory() && !rootFileObject.isRemote()) {
+            log("Root File Object is a file. We assume its a zip file, which is okay.");
+
+            File resultFile = new File(rootFileObject.getRemote());
+
+            if (null != digest) {
+                try (InputStream inputStream = new DigestInputStream(new FileInputStream(resultFile), digest)) {
+                    IOUtils.copy(inputStream, NullOutputStream.NULL_OUTPUT_STREAM);
+                }
+            }
+
+            return resultFile;
+        }
+
         File resultFile = File.createTempFile("awseb-", ".zip");
 
+        temporaryArchive = true;
+
+        OutputStream outputStream = new FileOutputStream(resultFile);
+
+        if (null != digest) {
+            outputStream = new DigestOutputStream(outputStream, digest);
+        }
+
+        try {
+            writeArchive(rootFileObject, outputStream);
+        } finally {
+            outputStream.close();
+        }
+
+        return resultFile;
+    }
+
+    private void writeArchive(FilePath rootFileObject, OutputStream outputStream) throws Exception {
         if (!rootFileObject.isDirectory()) {
             log("Root File Object is a file. We assume its a zip file, which is okay.");
 
-            rootFileObject.copyTo(new FileOutputStream(resultFile));
+            rootFileObject.copyTo(outputStream);
+        } else if (isParallelArchiverNeeded() && !rootFileObject.isRemote()) {
+            int threads = (getArchiveThreads() > 0) ? getArchiveThreads() : Runtime.getRuntime().availableProcessors();
+
+            buildArchive(new File(rootFileObject.getRemote()), outputStream, threads);
         } else {
-            log("Zipping contents of Root File Object (%s) into tmp file %s (includes=%s, excludes=%s)",
-                    rootFileObject.getName(), resultFile.getName(),
-                    getConfig().getIncludes(), getConfig().getExcludes());
+            log("Zipping contents of Root File Object (%s) (includes=%s, excludes=%s)",
+                    rootFileObject.getName(), getConfig().getIncludes(), getConfig().getExcludes());
 
-            rootFileObject.zip(new FileOutputStream(resultFile),
-                    new DirScanner.Glob(getConfig().getIncludes(),
-                            getConfig().getExcludes()));
+            rootFileObject.zip(outputStream,
+                    WorkspaceScanner.asDirScanner(getConfig().getIncludes(), getConfig().getExcludes()));
         }
+    }
 
-        return resultFile;
+    /**
+     * Zips the Root File Object, deflating entries in parallel
+     */
+    private void buildArchive(File rootDirectory, OutputStream outputStream, int threads) throws IOException {
+        log("Zipping contents of Root File Object (%s) using %d threads (includes=%s, excludes=%s)",
+                rootDirectory.getName(), threads, getConfig().getIncludes(), getConfig().getExcludes());
+
+        long startTime = System.currentTimeMillis();
+
+        EntryCache entryCache = (getEntryCacheSize() > 0) ? EntryCache.getDefault() : null;
+
+        try (final ParallelZipArchiver archiver = new ParallelZipArchiver(outputStream, threads)) {
+            archiver.setEntryCache(entryCache);
+            archiver.setReproducible(getConfig().isReproducibleArchive());
+            archiver.setLevel(getCompressionLevel());
+            archiver.setStoredExtensions(getStoredExtensions());
+
+            final boolean sorted = getConfig().isReproducibleArchive();
+            final SortedMap<String, File> files = new TreeMap<>();
+            WorkspaceScanner scanner = new WorkspaceScanner(getConfig().getIncludes(), getConfig().getExcludes());
+
+            if (getConfig().isUseEbIgnore()) {
+                IgnoreRules ignoreRules = IgnoreRules.load(new File(rootDirectory, IgnoreRules.EBIGNORE));
+
+                if (null != ignoreRules) {
+                    log("Applying %d rules from %s", ignoreRules.size(), IgnoreRules.EBIGNORE);
+
+                    scanner.setIgnoreRules(ignoreRules);
+                } else {
+                    log("No %s found on Root File Object", IgnoreRules.EBIGNORE);
+                }
+            }
+
+            scanner.scan(rootDirectory, new FileVisitor() {
+                @Override
+                public void visit(File f, String relativePath) throws IOException {
+                    if (sorted) {
+                        files.put(relativePath, f);
+                    } else {
+                        archiver.add(f, relativePath);
+                    }
+                }
+            });
+
+            for (Map.Entry<String, File> file : files.entrySet()) {
+                archiver.add(file.getValue(), file.getKey());
+            }
+
+            log("Skipped %d directories which couldn't hold any selected file (and %d ignored files)",
+                    scanner.getPrunedDirectories(), scanner.getIgnoredFiles());
+
+            archiver.finish();
+
+            archiveEntries = archiver.getEntries();
+            centralDirectoryOffset = archiver.getCentralDirectoryOffset();
+
+            log("Zipped %d entries (%d bytes into %d bytes) in %d ms", archiver.getEntryCount(),
+                    archiver.getBytesIn(), archiver.getBytesOut(), System.currentTimeMillis() - startTime);
+
+            for (ArchiveStats.FileClass fileClass : archiver.getStats().getFileClasses()) {
+                log("  %s", fileClass);
+            }
+
+            if (null != entryCache) {
+                log("Entry Cache (%s): %d hits, %d misses", entryCache.getDirectory(), archiver.getCacheHits(),
+                        archiver.getCacheMisses());
+            }
+        } finally {
+            // Even when the build fails, so the (shared) cache never stays over budget
+            if (null != entryCache) {
+                trimEntryCache(entryCache);
+            }
+        }
+    }
+
+    private void trimEntryCache(EntryCache entryCache) {
+        try {
+            int evicted = entryCache.trim(getEntryCacheSize() * MEGABYTE);
+
+            log("Entry Cache (%s): %d entries evicted, %d bytes used", entryCache.getDirectory(), evicted,
+                    entryCache.getTotalBytes());
+        } catch (IOException exc) {
+            log("Unable to trim Entry Cache (%s): %s", entryCache.getDirectory(), exc);
+        }
+    }
+
+    private int getUploadPartSize() {
+        int uploadPartSize = (getConfig().getUploadPartSize() != null) ? getConfig().getUploadPartSize() : UPLOAD_PART_SIZE;
+
+        return Math.min(MAX_UPLOAD_PART_SIZE, Math.max(MIN_UPLOAD_PART_SIZE, uploadPartSize));
+    }
+
+    private int getUploadConcurrency() {
+        return Math.max(1,
+                (getConfig().getUploadConcurrency() != null) ? getConfig().getUploadConcurrency() : UPLOAD_CONCURRENCY);
+    }
+
+    /**
+     * Is any option which only the parallel archiver supports enabled?
+     */
+    private boolean isParallelArchiverNeeded() {
+        return getArchiveThreads() > 0 || getEntryCacheSize() > 0 || getConfig().isDeltaUpload()
+                || getConfig().isReproducibleArchive() || null != getConfig().getCompressionLevel()
+                || isNotBlank(getConfig().getStoredExtensions()) || getConfig().isUseEbIgnore();
+    }
+
+    private int getCompressionLevel() {
+        if (null == getConfig().getCompressionLevel()) {
+            return Deflater.DEFAULT_COMPRESSION;
+        }
+
+        int level = getConfig().getCompressionLevel();
+
+        return Math.min(Deflater.BEST_COMPRESSION, Math.max(Deflater.NO_COMPRESSION, level));
+    }
+
+    /**
+     * Parses storedExtensions (e.g. "jar, *.war .png")
+     */
+    private Set<String> getStoredExtensions() {
+        Set<String> result = new HashSet<>();
+
+        if (isBlank(getConfig().getStoredExtensions())) {
+            return result;
+        }
+
+        for (String extension : getConfig().getStoredExtensions().split("[,\\s]+")) {
+            extension = StringUtils.removeStart(StringUtils.removeStart(extension.trim(), "*"), ".");
+
+            if (!extension.isEmpty()) {
+                result.add(extension.toLowerCase(Locale.ENGLISH));
+            }
+        }
+
+        return result;
+    }
+
+    private int getArchiveThreads() {
+        return (getConfig().getArchiveThreads() != null) ? getConfig().getArchiveThreads() : 0;
+    }
+
+    private long getEntryCacheSize() {
+        return (getConfig().getEntryCacheSize() != null) ? getConfig().getEntryCacheSize() : 0L;
     }
 }
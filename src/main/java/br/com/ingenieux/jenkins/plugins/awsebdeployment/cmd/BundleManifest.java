@@ -0,0 +1,271 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd;
+
+import hudson.Util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Describes the layout of an uploaded bundle: where each entry record (local header, data and data descriptor)
+ * starts inside the S3 Object, its length and the SHA-256 digest of its raw bytes.
+ *
+ * Records with the same name, length and digest are byte-for-byte identical, so the next bundle can copy them from
+ * this S3 Object instead of uploading them again.
+ *
+ * Stored as a tab-separated text file next to the bundles.
+ */
+public class BundleManifest {
+    static final String HEADER = "# awseb-deployment bundle manifest v2";
+
+    static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private String bucketName;
+
+    private String objectKey;
+
+    private String eTag;
+
+    private long size;
+
+    private final List<Record> records = new ArrayList<>();
+
+    public String getBucketName() {
+        return bucketName;
+    }
+
+    public String getObjectKey() {
+        return objectKey;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public List<Record> getRecords() {
+        return Collections.unmodifiableList(records);
+    }
+
+    /**
+     * Records the S3 Object this manifest describes
+     */
+    public void setLocation(String bucketName, String objectKey, String eTag) {
+        this.bucketName = bucketName;
+        this.objectKey = objectKey;
+        this.eTag = eTag;
+    }
+
+    /**
+     * Where the Central Directory (i.e., the trailing part which is never reused) starts
+     */
+    public long getCentralDirectoryOffset() {
+        return records.isEmpty() ? 0L : records.get(records.size() - 1).getEnd();
+    }
+
+    public Map<String, Record> getRecordsByName() {
+        Map<String, Record> result = new HashMap<>(2 * records.size());
+
+        for (Record record : records) {
+            result.put(record.name, record);
+        }
+
+        return result;
+    }
+
+    /**
+     * Builds the manifest of a local archive, reading it once to digest each entry record
+     *
+     * @param entries                entries, as written
+     * @param centralDirectoryOffset where the last record ends
+     */
+    public static BundleManifest fromArchive(File archive, List<ZipArchiveWriter.Entry> entries,
+                                             long centralDirectoryOffset) throws IOException {
+        BundleManifest result = new BundleManifest();
+
+        result.size = archive.length();
+
+        byte[] buf = new byte[64 * 1024];
+        MessageDigest digest = newDigest();
+
+        try (InputStream in = new FileInputStream(archive)) {
+            for (int i = 0; i < entries.size(); i++) {
+                ZipArchiveWriter.Entry entry = entries.get(i);
+                long end = (i + 1 < entries.size()) ? entries.get(i + 1).getOffset() : centralDirectoryOffset;
+                long remaining = end - entry.getOffset();
+
+                while (remaining > 0) {
+                    int n = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+
+                    if (-1 == n) {
+                        throw new EOFException("Archive shorter than its entries: " + archive);
+                    }
+
+                    digest.update(buf, 0, n);
+
+                    remaining -= n;
+                }
+
+                result.records.add(new Record(entry.getName(), entry.getOffset(), end - entry.getOffset(),
+                        Util.toHexString(digest.digest())));
+            }
+        }
+
+        return result;
+    }
+
+    public void write(OutputStream outputStream) throws IOException {
+        Writer w = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+
+        w.write(HEADER + "\n");
+        w.write("bucket\t" + bucketName + "\n");
+        w.write("key\t" + objectKey + "\n");
+        w.write("etag\t" + eTag + "\n");
+        w.write("size\t" + size + "\n");
+
+        for (Record record : records) {
+            w.write(String.format("entry\t%d\t%d\t%s\t%s\n", record.offset, record.length, record.digest,
+                    record.name));
+        }
+
+        w.flush();
+    }
+
+    public static BundleManifest read(InputStream inputStream) throws IOException {
+        BufferedReader r = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+
+        String header = r.readLine();
+
+        if (!HEADER.equals(header)) {
+            throw new IOException("Not a bundle manifest (or an unsupported version of it): " + header);
+        }
+
+        BundleManifest result = new BundleManifest();
+        String line;
+
+        while (null != (line = r.readLine())) {
+            String[] fields = line.split("\t", 5);
+
+            try {
+                switch (fields[0]) {
+                    case "bucket":
+                        result.bucketName = fields[1];
+                        break;
+                    case "key":
+                        result.objectKey = fields[1];
+                        break;
+                    case "etag":
+                        result.eTag = fields[1];
+                        break;
+                    case "size":
+                        result.size = Long.parseLong(fields[1]);
+                        break;
+                    case "entry":
+                        result.records.add(new Record(fields[4], Long.parseLong(fields[1]),
+                                Long.parseLong(fields[2]), fields[3]));
+                        break;
+                    default:
+                        // Unknown. Ignored.
+                }
+            } catch (ArrayIndexOutOfBoundsException | NumberFormatException exc) {
+                throw new IOException("Malformed bundle manifest line: " + line, exc);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Represents an Entry Record
+     */
+    public static class Record {
+        final String name;
+
+        final long offset;
+
+        final long length;
+
+        /**
+         * SHA-256 of the record bytes, in hex
+         */
+        final String digest;
+
+        public Record(String name, long offset, long length, String digest) {
+            this.name = name;
+            this.offset = offset;
+            this.length = length;
+            this.digest = digest;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public long getEnd() {
+            return offset + length;
+        }
+
+        public String getDigest() {
+            return digest;
+        }
+
+        /**
+         * Are both records byte-for-byte identical?
+         */
+        public boolean sameContentsAs(Record other) {
+            return null != other && name.equals(other.name) && length == other.length
+                    && digest.equals(other.digest);
+        }
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException exc) {
+            throw new IllegalStateException(exc);
+        }
+    }
+}
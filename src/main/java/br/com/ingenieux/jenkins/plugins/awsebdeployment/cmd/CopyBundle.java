@@ -0,0 +1,135 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd;
+
+import br.com.ingenieux.jenkins.plugins.awsebdeployment.Utils;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.CopyObjectResult;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copies the bundle uploaded to another region into this one, server-side (instead of building and uploading it
+ * again)
+ *
+ * Large bundles are copied as a multipart upload, with its parts copied in parallel.
+ */
+@SuppressFBWarnings({"EQ_DOESNT_OVERRIDE_EQUALS"})
+public class CopyBundle extends DeployerCommand {
+    /**
+     * Part Size of Multipart Copies (MiB). Smaller bundles are copied at once.
+     */
+    static final int COPY_PART_SIZE = 64;
+
+    @Override
+    public Set<DeployerContext.Key> requires() {
+        return EnumSet.of(DeployerContext.Key.Clients, DeployerContext.Key.Parameters);
+    }
+
+    @Override
+    public Set<DeployerContext.Key> provides() {
+        return EnumSet.of(DeployerContext.Key.Bundle);
+    }
+
+    @Override
+    public boolean perform() throws Exception {
+        ensureBucketName();
+
+        setObjectKey(getSourceObjectKey());
+        setS3ObjectPath("s3://" + Utils.formatPath("%s/%s", c.config.getBucketName(), getObjectKey()));
+
+        long startTime = System.nanoTime();
+        long partSize = (long) COPY_PART_SIZE * MEGABYTE;
+
+        if (getSourceObjectSize() <= partSize) {
+            CopyObjectResult result = getS3().copyObject(new CopyObjectRequest(getSourceBucketName(),
+                    getSourceObjectKey(), c.config.getBucketName(), getObjectKey())
+                    .withMatchingETagConstraint(getSourceETag()));
+
+            if (null == result) {
+                throw new IOException(String.format("s3://%s/%s changed since it was uploaded", getSourceBucketName(),
+                        getSourceObjectKey()));
+            }
+        } else {
+            copyInParts(partSize);
+        }
+
+        log("Copied %d bytes from s3://%s/%s into %s in %d ms", getSourceObjectSize(), getSourceBucketName(),
+                getSourceObjectKey(), getS3ObjectPath(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+
+        return false;
+    }
+
+    private void copyInParts(long partSize) throws IOException {
+        final MultipartUpload upload = new MultipartUpload(getS3(), c.config.getBucketName(), getObjectKey(),
+                new ObjectMetadata());
+        int concurrency = Math.max(1,
+                (getConfig().getUploadConcurrency() != null) ? getConfig().getUploadConcurrency() : UPLOAD_CONCURRENCY);
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency,
+                new ThreadFactoryBuilder().setNameFormat("awseb-copy-%d").setDaemon(true).build());
+
+        try {
+            List<Future<PartETag>> futures = new ArrayList<>();
+
+            for (long firstByte = 0; firstByte < getSourceObjectSize(); firstByte += partSize) {
+                final int partNumber = 1 + futures.size();
+                final long partFirstByte = firstByte;
+                final long partLastByte = Math.min(getSourceObjectSize(), firstByte + partSize) - 1;
+
+                futures.add(executor.submit(new Callable<PartETag>() {
+                    @Override
+                    public PartETag call() throws Exception {
+                        return upload.copyPart(partNumber, getSourceBucketName(), getSourceObjectKey(),
+                                getSourceETag(), partFirstByte, partLastByte);
+                    }
+                }));
+            }
+
+            List<PartETag> partETags = new ArrayList<>(futures.size());
+
+            for (Future<PartETag> future : futures) {
+                partETags.add(MultipartFileUploader.waitFor(future));
+            }
+
+            upload.complete(partETags);
+
+            if (upload.getRetriedParts() > 0) {
+                log("Copied %d parts (%d part attempts retried)", partETags.size(), upload.getRetriedParts());
+            }
+        } catch (IOException | RuntimeException exc) {
+            upload.abort();
+
+            throw exc;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
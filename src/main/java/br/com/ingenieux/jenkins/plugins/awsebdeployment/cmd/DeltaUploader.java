@@ -0,0 +1,280 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd;
+
+import br.com.ingenieux.jenkins.plugins.awsebdeployment.Constants;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Uploads an archive as a S3 Multipart Upload where ranges left unchanged since the previous bundle are copied
+ * server-side (UploadPartCopy) from it, and only the remaining bytes (changed entries and the Central Directory)
+ * are actually sent.
+ *
+ * As every part but the last must hold at least 5 MiB, unchanged ranges too small to be copied on their own are
+ * sent along with their neighbours instead.
+ */
+public class DeltaUploader implements Constants {
+    /**
+     * S3 Limit for every part but the last
+     */
+    static final long MIN_PART_SIZE = MIN_UPLOAD_PART_SIZE * MEGABYTE;
+
+    private final AmazonS3 s3;
+
+    private final int partSize;
+
+    private final int concurrency;
+
+    public DeltaUploader(AmazonS3 s3, int partSize, int concurrency) {
+        this.s3 = s3;
+        this.partSize = Math.max(partSize, (int) MIN_PART_SIZE);
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Plans the parts of the new archive
+     *
+     * @return parts, in order, or null when it can't be done within S3 limits
+     */
+    public List<Part> plan(BundleManifest previous, BundleManifest current) {
+        List<Part> segments = new ArrayList<>();
+        Map<String, BundleManifest.Record> previousRecords = previous.getRecordsByName();
+
+        for (BundleManifest.Record record : current.getRecords()) {
+            BundleManifest.Record previousRecord = previousRecords.get(record.getName());
+
+            if (record.sameContentsAs(previousRecord)) {
+                append(segments, new Part(record.getOffset(), record.getLength(), previousRecord.getOffset()));
+            } else {
+                append(segments, new Part(record.getOffset(), record.getLength(), -1L));
+            }
+        }
+
+        long centralDirectoryOffset = current.getCentralDirectoryOffset();
+
+        append(segments, new Part(centralDirectoryOffset, current.getSize() - centralDirectoryOffset, -1L));
+
+        List<Part> result = new ArrayList<>();
+        long literalStart = 0L;
+        long literalEnd = 0L;
+
+        for (Part segment : segments) {
+            if (!segment.isCopy()) {
+                if (literalStart == literalEnd) {
+                    literalStart = segment.position;
+                }
+
+                literalEnd = segment.getEnd();
+
+                continue;
+            }
+
+            long position = segment.position;
+            long length = segment.length;
+            long sourceOffset = segment.sourceOffset;
+            long literalLength = literalEnd - literalStart;
+
+            // Grows the pending literal range up to the minimum part size with bytes we'd otherwise copy
+            if (literalLength > 0 && literalLength < MIN_PART_SIZE) {
+                long taken = Math.min(length, MIN_PART_SIZE - literalLength);
+
+                literalEnd += taken;
+                position += taken;
+                sourceOffset += taken;
+                length -= taken;
+            }
+
+            if (length < MIN_PART_SIZE) {
+                if (literalStart == literalEnd) {
+                    literalStart = position;
+                }
+
+                literalEnd = position + length;
+
+                continue;
+            }
+
+            addLiteral(result, literalStart, literalEnd);
+
+            literalStart = literalEnd = position + length;
+
+            result.add(new Part(position, length, sourceOffset));
+        }
+
+        addLiteral(result, literalStart, literalEnd);
+
+        return (result.size() <= MultipartFileUploader.MAX_PARTS) ? result : null;
+    }
+
+    /**
+     * Uploads an archive following a plan
+     *
+     * @param previous manifest of the bundle to copy from
+     * @param parts    as returned from {@link #plan(BundleManifest, BundleManifest)}
+     * @return the completed upload
+     */
+    public MultipartUpload upload(File archive, String bucketName, String objectKey, ObjectMetadata objectMetadata,
+                                  final BundleManifest previous, List<Part> parts) throws IOException {
+        final MultipartUpload upload = new MultipartUpload(s3, bucketName, objectKey, objectMetadata);
+        final ExecutorService executor = Executors.newFixedThreadPool(concurrency,
+                new ThreadFactoryBuilder().setNameFormat("awseb-upload-%d").setDaemon(true).build());
+
+        try (final FileChannel channel = FileChannel.open(archive.toPath(), StandardOpenOption.READ)) {
+            List<Future<PartETag>> futures = new ArrayList<>(parts.size());
+
+            for (int i = 0; i < parts.size(); i++) {
+                final int partNumber = i + 1;
+                final Part part = parts.get(i);
+
+                futures.add(executor.submit(new Callable<PartETag>() {
+                    @Override
+                    public PartETag call() throws Exception {
+                        if (part.isCopy()) {
+                            return upload.copyPart(partNumber, previous.getBucketName(), previous.getObjectKey(),
+                                    previous.getETag(), part.sourceOffset, part.sourceOffset + part.length - 1);
+                        }
+
+                        byte[] data = new byte[(int) part.length];
+
+                        MultipartFileUploader.readFully(channel, data, part.position);
+
+                        return upload.uploadPart(partNumber, data, data.length);
+                    }
+                }));
+            }
+
+            List<PartETag> partETags = new ArrayList<>(parts.size());
+
+            for (Future<PartETag> future : futures) {
+                partETags.add(MultipartFileUploader.waitFor(future));
+            }
+
+            upload.complete(partETags);
+
+            return upload;
+        } catch (IOException | RuntimeException exc) {
+            upload.abort();
+
+            throw exc;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Bytes copied server-side
+     */
+    public static long getCopiedBytes(List<Part> parts) {
+        long result = 0L;
+
+        for (Part part : parts) {
+            if (part.isCopy()) {
+                result += part.length;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Merges a segment into the previous one when both are contiguous (on both sides, for copies)
+     */
+    private static void append(List<Part> segments, Part segment) {
+        if (0 == segment.length) {
+            return;
+        }
+
+        Part last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+
+        if (null != last && last.isCopy() == segment.isCopy() && last.getEnd() == segment.position
+                && (!segment.isCopy() || last.sourceOffset + last.length == segment.sourceOffset)) {
+            segments.set(segments.size() - 1, new Part(last.position, last.length + segment.length,
+                    last.sourceOffset));
+        } else {
+            segments.add(segment);
+        }
+    }
+
+    /**
+     * Splits a range to be sent into parts of (at least) partSize, except for the last one
+     */
+    private void addLiteral(List<Part> parts, long start, long end) {
+        long length = end - start;
+        long count = Math.max(1L, length / partSize);
+
+        for (long i = 0; i < count && length > 0; i++) {
+            long position = start + i * partSize;
+            long partLength = (i + 1 < count) ? partSize : end - position;
+
+            parts.add(new Part(position, partLength, -1L));
+        }
+    }
+
+    /**
+     * Represents a Part of the new archive
+     */
+    public static class Part {
+        /**
+         * Offset in the new archive
+         */
+        final long position;
+
+        final long length;
+
+        /**
+         * Offset in the previous bundle, or -1 when sent from the local archive
+         */
+        final long sourceOffset;
+
+        Part(long position, long length, long sourceOffset) {
+            this.position = position;
+            this.length = length;
+            this.sourceOffset = sourceOffset;
+        }
+
+        public boolean isCopy() {
+            return sourceOffset >= 0;
+        }
+
+        public long getPosition() {
+            return position;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public long getEnd() {
+            return position + length;
+        }
+    }
+}
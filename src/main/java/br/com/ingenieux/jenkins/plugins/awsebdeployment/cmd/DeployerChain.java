@@ -19,77 +19,297 @@
 
 package br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd;
 
+import br.com.ingenieux.jenkins.plugins.awsebdeployment.ApiMetrics;
+import br.com.ingenieux.jenkins.plugins.awsebdeployment.RequestMetricsHandler;
+import br.com.ingenieux.jenkins.plugins.awsebdeployment.ThrottlingRequestHandler;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Represents a chain of responsibility of deployment steps
+ *
+ * Commands declare what they require from (and provide to) the {@link DeployerContext}, so each one is performed
+ * as soon as its requirements are met, concurrently with any other independent one (e.g., looking up environments
+ * while the archive is being uploaded). Once a command aborts (or fails), no command after it (in chain order) is
+ * started, while the ones before it still are, just as if they had been performed one at a time (e.g., the
+ * application version still gets created when looking up the environments aborts). Every command started is then
+ * released, in reverse chain order.
+ *
+ * How long each command took (and the calls it made) is recorded into a {@link DeploymentReport}.
  */
 public class DeployerChain {
     private List<DeployerCommand> commandList;
 
     private final DeployerContext c;
 
+    private final DeploymentReport report;
+
     public DeployerChain(DeployerContext deployerContext) {
+        this(deployerContext, null);
+    }
+
+    /**
+     * @param commandList commands to perform (null to build them from the config)
+     */
+    DeployerChain(DeployerContext deployerContext, List<DeployerCommand> commandList) {
         this.c = deployerContext;
+        this.commandList = commandList;
+        this.report = new DeploymentReport(c.config.getApplicationName(), c.config.getEnvironmentName());
+
+        c.setReport(report);
+    }
+
+    /**
+     * Timeline of the deployment performed
+     */
+    public DeploymentReport getReport() {
+        return report;
     }
 
     public boolean perform() throws Exception {
-        buildCommandList();
+        if (null == commandList) {
+            buildCommandList();
+        }
+
+        // Commands are told apart by position (they're equal to each other, as far as DeployerCommand#equals goes)
+        Map<DeployerCommand, Integer> positions = new IdentityHashMap<>();
+
+        for (int i = 0; i < commandList.size(); i++) {
+            positions.put(commandList.get(i), i);
+        }
 
-        ListIterator<DeployerCommand> itCommand = commandList.listIterator();
+        ExecutorService executorService = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setNameFormat("awseb-deployer-%d")
+                .setDaemon(true)
+                .build());
+        CompletionService<Boolean> completionService = new ExecutorCompletionService<>(executorService);
+
+        Map<Future<Boolean>, DeployerCommand> running = new HashMap<>();
+        List<DeployerCommand> pending = new ArrayList<>(commandList);
+        SortedSet<Integer> started = new TreeSet<>();
+        Set<DeployerContext.Key> provided = EnumSet.noneOf(DeployerContext.Key.class);
 
         boolean abortedOnPerform = false;
         Exception resultingException = null;
 
-        while (itCommand.hasNext()) {
-            boolean mustAbort;
-            DeployerCommand nextCommand = itCommand.next();
+        // Position of the first command which aborted (or failed): no command after it is started
+        int stopAt = Integer.MAX_VALUE;
 
-            nextCommand.setDeployerContext(c);
+        try {
+            while (true) {
+                for (Iterator<DeployerCommand> itCommand = pending.iterator(); itCommand.hasNext(); ) {
+                    final DeployerCommand nextCommand = itCommand.next();
+                    final int position = positions.get(nextCommand);
 
-            try {
-                mustAbort = nextCommand.perform();
-            } catch (Exception exc) {
-                mustAbort = true;
-                resultingException = exc;
+                    if (position > stopAt) {
+                        break;
+                    }
+
+                    if (!isReady(nextCommand, pending, provided, running.isEmpty())) {
+                        continue;
+                    }
+
+                    nextCommand.setDeployerContext(c);
+
+                    running.put(completionService.submit(new Callable<Boolean>() {
+                        @Override
+                        public Boolean call() throws Exception {
+                            return timed(nextCommand, DeploymentReport.Phase.Perform, new Callable<Boolean>() {
+                                @Override
+                                public Boolean call() throws Exception {
+                                    return nextCommand.perform();
+                                }
+                            });
+                        }
+                    }), nextCommand);
+
+                    started.add(position);
+
+                    itCommand.remove();
+
+                    // Commands requiring everything before them run on their own
+                    if (null == nextCommand.requires()) {
+                        break;
+                    }
+                }
+
+                if (running.isEmpty()) {
+                    if (!abortedOnPerform && !pending.isEmpty()) {
+                        throw new IllegalStateException("Unable to perform " + pending.get(0).getClass().getSimpleName()
+                                + ": missing " + missing(pending.get(0), provided));
+                    }
+
+                    break;
+                }
+
+                Future<Boolean> done = completionService.take();
+                DeployerCommand doneCommand = running.remove(done);
+
+                try {
+                    if (done.get()) {
+                        abortedOnPerform = true;
+                        stopAt = Math.min(stopAt, positions.get(doneCommand));
+                    } else {
+                        provided.addAll(doneCommand.provides());
+                    }
+                } catch (ExecutionException exc) {
+                    abortedOnPerform = true;
+                    stopAt = Math.min(stopAt, positions.get(doneCommand));
+
+                    if (null == resultingException) {
+                        resultingException = (exc.getCause() instanceof Exception) ? (Exception) exc.getCause() : exc;
+                    }
+                }
             }
+        } catch (InterruptedException exc) {
+            abortedOnPerform = true;
+            resultingException = exc;
 
-            if (mustAbort) {
-                abortedOnPerform = true;
-                break;
+            for (Future<Boolean> future : running.keySet()) {
+                future.cancel(true);
             }
+        } catch (IllegalStateException exc) {
+            abortedOnPerform = true;
+            resultingException = exc;
+        } finally {
+            executorService.shutdown();
         }
 
-        while (itCommand.hasPrevious()) {
-            DeployerCommand prevCommand = itCommand.previous();
+        for (int index : reversed(started)) {
+            final DeployerCommand command = commandList.get(index);
 
             try {
-                prevCommand.release();
+                timed(command, DeploymentReport.Phase.Release, new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        command.release();
+
+                        return false;
+                    }
+                });
             } catch (Exception exc) {
                 resultingException = exc;
             }
         }
 
-        if (null != resultingException)
+        report.setVersionLabel(c.getVersionLabel());
+        report.setAborted(abortedOnPerform);
+
+        if (null != resultingException) {
+            report.setFailure(resultingException.toString());
+
             throw resultingException;
+        }
 
         return abortedOnPerform;
     }
 
+    /**
+     * Performs (or releases) a command, recording how long it took and the calls it made
+     */
+    private boolean timed(DeployerCommand command, DeploymentReport.Phase phase, Callable<Boolean> body)
+            throws Exception {
+        ApiMetrics apiMetrics = new ApiMetrics();
+        DeploymentReport.Outcome outcome = DeploymentReport.Outcome.Failed;
+        long startTime = System.currentTimeMillis();
+
+        ThrottlingRequestHandler.setLogger(c.getLogger());
+        RequestMetricsHandler.setMetrics(apiMetrics);
+
+        try {
+            boolean result = body.call();
+
+            outcome = result ? DeploymentReport.Outcome.Aborted : DeploymentReport.Outcome.Completed;
+
+            return result;
+        } finally {
+            RequestMetricsHandler.setMetrics(null);
+            ThrottlingRequestHandler.setLogger(null);
+
+            report.record(command.getClass().getSimpleName(), phase, outcome, startTime,
+                    System.currentTimeMillis() - startTime, apiMetrics);
+        }
+    }
+
+    /**
+     * Is a command ready to be performed?
+     *
+     * @param idle is nothing else being performed?
+     */
+    private static boolean isReady(DeployerCommand command, List<DeployerCommand> pending,
+                                   Set<DeployerContext.Key> provided, boolean idle) {
+        Set<DeployerContext.Key> requires = command.requires();
+
+        if (null == requires) {
+            // Everything before it must be done
+            return idle && pending.get(0) == command;
+        }
+
+        return provided.containsAll(requires);
+    }
+
+    private static Set<DeployerContext.Key> missing(DeployerCommand command, Set<DeployerContext.Key> provided) {
+        Set<DeployerContext.Key> result = EnumSet.noneOf(DeployerContext.Key.class);
+
+        if (null != command.requires()) {
+            result.addAll(command.requires());
+            result.removeAll(provided);
+        }
+
+        return result;
+    }
+
+    private static List<Integer> reversed(SortedSet<Integer> indexes) {
+        List<Integer> result = new ArrayList<>(indexes);
+
+        Collections.reverse(result);
+
+        return result;
+    }
+
     @SuppressWarnings({"unchecked"})
     private void buildCommandList() {
+        // Additional regions copy the bundle of the main one
+        boolean additionalRegion = null != c.getSourceObjectKey();
+
         this.commandList = Lists.newArrayList(
                 new DeployerCommand.InitLogger(),
                 new DeployerCommand.ValidateParameters(),
                 new DeployerCommand.InitAWS(),
-                new BuildAndUploadArchive(),
+                additionalRegion ? new CopyBundle() : new BuildAndUploadArchive(),
                 new DeployerCommand.CreateApplicationVersion()
         );
 
+        boolean replicating = !additionalRegion && !ReplicateToRegions.regionsOf(c.config.getAdditionalRegions(),
+                c.config.getAwsRegion()).isEmpty();
+
+        if (replicating) {
+            commandList.add(new ReplicateToRegions());
+        }
+
         if (!c.config.isSkipEnvironmentUpdates()) {
+            // Rolling updates wait for each environment themselves, wave by wave
+            boolean rollingUpdate = c.config.isRollingUpdate() && !c.config.isZeroDowntime();
+
             if (c.config.isZeroDowntime()) {
                 commandList.add(new ZeroDowntime());
             } else {
@@ -97,18 +317,28 @@ public class DeployerChain {
 
                 commandList.add(new DeployerCommand.AbortPendingUpdates());
 
-                commandList.add(new DeployerCommand.WaitForEnvironment(WaitFor.Status).withoutVersionCheck());
+                commandList.add(new DeployerCommand.WaitForEnvironment(WaitFor.Status).withoutVersionCheck()
+                        .after(DeployerContext.Key.UpdatesAborted)
+                        .providing(DeployerContext.Key.EnvironmentIdle));
 
-                commandList.add(new DeployerCommand.UpdateApplicationVersion());
+                if (rollingUpdate) {
+                    commandList.add(new RollingUpdate());
+                } else {
+                    commandList.add(new DeployerCommand.UpdateApplicationVersion());
+                }
             }
 
-            if (c.config.isCheckHealth()) {
-                commandList.add(new DeployerCommand.WaitForEnvironment(WaitFor.Both));
-            } else {
-                commandList.add(new DeployerCommand.WaitForEnvironment(WaitFor.Status));
+            if (!rollingUpdate) {
+                commandList.add(new DeployerCommand.WaitForEnvironment(c.config.isCheckHealth() ? WaitFor.Both :
+                        WaitFor.Status)
+                        .after(DeployerContext.Key.EnvironmentUpdated)
+                        .providing(DeployerContext.Key.EnvironmentDeployed));
             }
 
-            commandList.add(new DeployerCommand.MarkAsSuccessful());
+            // Not before the additional regions are done as well
+            commandList.add(replicating ?
+                    new DeployerCommand.MarkAsSuccessful().after(DeployerContext.Key.RegionsDeployed) :
+                    new DeployerCommand.MarkAsSuccessful());
 
             commandList.add(new DeployerCommand.VerifyVersion());
         }
@@ -19,6 +19,7 @@ package br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd;
 import br.com.ingenieux.jenkins.plugins.awsebdeployment.AWSClientFactory;
 import br.com.ingenieux.jenkins.plugins.awsebdeployment.Constants;
 import br.com.ingenieux.jenkins.plugins.awsebdeployment.Utils;
+import br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd.DeployerContext.Key;
 import com.amazonaws.services.elasticbeanstalk.AWSElasticBeanstalkClient;
 import com.amazonaws.services.elasticbeanstalk.model.*;
 import com.amazonaws.services.s3.AmazonS3Client;
@@ -31,7 +32,8 @@ import lombok.experimental.Delegate;
 import org.apache.commons.lang.Validate;
 
 import java.util.*;
-import java.util.concurrent.TimeUnit;
+
+import static org.apache.commons.lang.StringUtils.isBlank;
 
 @Data
 public class DeployerCommand implements Constants {
@@ -62,6 +64,22 @@ public class DeployerCommand implements Constants {
         return false;
     }
 
+    /**
+     * What must have been provided (by commands performed before) in order to perform
+     *
+     * @return required keys, or null for everything performed before it in the chain
+     */
+    public Set<Key> requires() {
+        return null;
+    }
+
+    /**
+     * What performing provides to the commands after it
+     */
+    public Set<Key> provides() {
+        return EnumSet.noneOf(Key.class);
+    }
+
     /**
      * Logger Helper
      *
@@ -71,8 +89,23 @@ public class DeployerCommand implements Constants {
     protected void log(String message, Object... args) {
         String formattedMessage = String.format(message, args);
 
-        getLogger().print(Util.escape(formattedMessage));
-        getLogger().println();
+        // A single call, as commands (and their threads) may log concurrently
+        getLogger().println(Util.escape(c.getLogPrefix() + formattedMessage));
+    }
+
+    /**
+     * Makes sure there's a bucket to upload to: when none is set, the Elastic Beanstalk storage location of the region
+     */
+    protected void ensureBucketName() {
+        if (isBlank(c.config.getBucketName())) {
+            log("bucketName not set. Calling createStorageLocation");
+
+            final CreateStorageLocationResult storageLocation = getAwseb().createStorageLocation();
+
+            log("Using s3 Bucket '%s'", storageLocation.getS3Bucket());
+
+            c.config.setBucketName(storageLocation.getS3Bucket());
+        }
     }
 
     /**
@@ -93,6 +126,16 @@ public class DeployerCommand implements Constants {
      * Represents the logger setup
      */
     public static class InitLogger extends DeployerCommand {
+        @Override
+        public Set<Key> requires() {
+            return EnumSet.noneOf(Key.class);
+        }
+
+        @Override
+        public Set<Key> provides() {
+            return EnumSet.of(Key.Logger);
+        }
+
         @Override
         public boolean perform() {
             /*
@@ -113,6 +156,16 @@ public class DeployerCommand implements Constants {
      * Represents the initial validation
      */
     public static class ValidateParameters extends DeployerCommand {
+        @Override
+        public Set<Key> requires() {
+            return EnumSet.of(Key.Logger);
+        }
+
+        @Override
+        public Set<Key> provides() {
+            return EnumSet.of(Key.Parameters);
+        }
+
         @Override
         public boolean perform() throws Exception {
             setVersionLabel(getConfig().getVersionLabelFormat());
@@ -122,6 +175,11 @@ public class DeployerCommand implements Constants {
                 Validate.isTrue(!getEnvironmentNames().isEmpty(), "Empty/blank environmentName parameter");
             }
 
+            if (getConfig().isRollingUpdate()) {
+                // Fails on invalid wave sizes
+                RollingUpdate.waveSizes(getConfig().getRollingWaves(), getEnvironmentNames().size());
+            }
+
             Validate.notEmpty(c.config.getApplicationName(), "Empty/blank applicationName parameter");
 
             Validate.notEmpty(getVersionLabel(), "Empty/blank versionLabel parameter");
@@ -136,16 +194,40 @@ public class DeployerCommand implements Constants {
      * Builds the AWS Clients altogether
      */
     public static class InitAWS extends DeployerCommand {
+        @Override
+        public Set<Key> requires() {
+            return EnumSet.of(Key.Parameters);
+        }
+
+        @Override
+        public Set<Key> provides() {
+            return EnumSet.of(Key.Clients);
+        }
+
         @Override
         public boolean perform() throws Exception {
             AWSClientFactory factory;
 
-            factory = AWSClientFactory.getClientFactory(getConfig().getCredentialId(), getConfig().getAwsRegion());
+            factory = AWSClientFactory.getClientFactory(getConfig().getCredentialId(), getConfig().getAwsRegion(),
+                    getClientTuning(), getCredentials(), getProxySettings());
 
             log("Using region: '%s'", getConfig().getAwsRegion());
 
-            setS3(factory.getService(AmazonS3Client.class));
-            setAwseb(factory.getService(AWSElasticBeanstalkClient.class));
+            log("Using client settings: %s", factory.describeClientConfiguration());
+
+            setS3(factory.leaseService(AmazonS3Client.class));
+            setAwseb(factory.leaseService(AWSElasticBeanstalkClient.class));
+            setPoller(ApplicationPoller.of(getConfig().getCredentialId(), getConfig().getAwsRegion(),
+                    getConfig().getApplicationName()));
+            setEventTailer(new EnvironmentEventTailer(getPoller(), getAwseb(), System.currentTimeMillis()));
+
+            return false;
+        }
+
+        @Override
+        public boolean release() {
+            AWSClientFactory.release(getS3());
+            AWSClientFactory.release(getAwseb());
 
             return false;
         }
@@ -155,6 +237,16 @@ public class DeployerCommand implements Constants {
      * Creates an Application Version
      */
     public static class CreateApplicationVersion extends DeployerCommand {
+        @Override
+        public Set<Key> requires() {
+            return EnumSet.of(Key.Bundle);
+        }
+
+        @Override
+        public Set<Key> provides() {
+            return EnumSet.of(Key.ApplicationVersion);
+        }
+
         @Override
         public boolean perform() {
             log("Creating application version %s for application %s for path %s",
@@ -179,6 +271,16 @@ public class DeployerCommand implements Constants {
      * Lookups Environment Id - Aborting Deployment if not found.
      */
     public static class LookupEnvironmentId extends DeployerCommand {
+        @Override
+        public Set<Key> requires() {
+            return EnumSet.of(Key.Clients, Key.Parameters);
+        }
+
+        @Override
+        public Set<Key> provides() {
+            return EnumSet.of(Key.EnvironmentId);
+        }
+
         @Override
         public boolean perform() {
             DescribeEnvironmentsRequest req = new DescribeEnvironmentsRequest().
@@ -226,6 +328,16 @@ public class DeployerCommand implements Constants {
      * Updates de Application Version
      */
     public static class UpdateApplicationVersion extends DeployerCommand {
+        @Override
+        public Set<Key> requires() {
+            return EnumSet.of(Key.ApplicationVersion, Key.EnvironmentIdle);
+        }
+
+        @Override
+        public Set<Key> provides() {
+            return EnumSet.of(Key.EnvironmentUpdated);
+        }
+
         @Override
         public boolean perform() {
             Collection<String> environmentIds = getEnvironmentIds();
@@ -240,6 +352,8 @@ public class DeployerCommand implements Constants {
                 getAwseb().updateEnvironment(req);
             }
 
+            getPoller().invalidate();
+
             return false;
         }
 
@@ -254,6 +368,10 @@ public class DeployerCommand implements Constants {
 
         boolean versionCheck;
 
+        Key requiredKey = Key.EnvironmentId;
+
+        Key providedKey;
+
         WaitForEnvironment(WaitFor waitFor) {
             this.waitFor = waitFor;
             this.versionCheck = true;
@@ -265,9 +383,36 @@ public class DeployerCommand implements Constants {
             return this;
         }
 
+        /**
+         * Waits only after something is provided
+         */
+        WaitForEnvironment after(Key requiredKey) {
+            this.requiredKey = requiredKey;
+
+            return this;
+        }
+
+        /**
+         * Provides something once done waiting
+         */
+        WaitForEnvironment providing(Key providedKey) {
+            this.providedKey = providedKey;
+
+            return this;
+        }
+
         @Override
-        public boolean perform() throws Exception {
+        public Set<Key> requires() {
+            return EnumSet.of(Key.EnvironmentId, requiredKey);
+        }
 
+        @Override
+        public Set<Key> provides() {
+            return (null != providedKey) ? EnumSet.of(providedKey) : EnumSet.noneOf(Key.class);
+        }
+
+        @Override
+        public boolean perform() throws Exception {
             Collection<String> environmentIds = getEnvironmentIds();
 
             if (environmentIds.size() < 1) {
@@ -276,98 +421,13 @@ public class DeployerCommand implements Constants {
                 return true;
             }
 
-            boolean moveOn = false;
-
-            for (int i = 0; i < environmentIds.size(); i++) {
-
-                Integer maxAttempts = (getConfig().getMaxAttempts() != null) ? getConfig().getMaxAttempts() : MAX_ATTEMPTS;
-
-                moveOn = false;
-
-                for (int nAttempt = 1; nAttempt <= maxAttempts; nAttempt++) {
+            EnvironmentWaiter waiter = new EnvironmentWaiter(this, waitFor);
 
-                    List<EnvironmentDescription> environments = getAwseb().describeEnvironments(new DescribeEnvironmentsRequest()
-                            .withEnvironmentIds(getEnvironmentIds())
-                            .withIncludeDeleted(false)
-                    ).getEnvironments();
-
-                    String currentEnvironmentId = environments.get(i).getEnvironmentId();
-
-                    EnvironmentDescription environmentDescription = environments.get(i);
-
-                    long lastMessageTimestamp = System.currentTimeMillis();
-
-                    if (moveOn)
-                        break;
-
-                    {
-                        final DescribeEventsResult describeEventsResult = getAwseb().describeEvents(
-                                new DescribeEventsRequest()
-                                        .withEnvironmentId(currentEnvironmentId)
-                                        .withStartTime(new Date(lastMessageTimestamp))
-                        );
-
-                        for (EventDescription eventDescription : describeEventsResult.getEvents()) {
-                            log("%s [%s] %s", eventDescription.getEventDate(), eventDescription.getSeverity(), eventDescription.getMessage());
-
-                            lastMessageTimestamp = Math.max(eventDescription.getEventDate().getTime(), lastMessageTimestamp);
-                        }
-                    }
-
-                    int sleepTime = (getConfig().getSleepTime() != null) ? getConfig().getSleepTime() : SLEEP_TIME;
-                    Thread.sleep(TimeUnit.SECONDS.toMillis(sleepTime));
-
-                    log("Checking health/status of environmentId %s attempt %d/%s", currentEnvironmentId, nAttempt,
-                            maxAttempts);
-
-                    // Before checking status and readiness, we must check version unless told otherwise
-                    {
-                        final boolean bHasDifferentVersion = !getVersionLabel().equals(getVersionLabel());
-
-                        if (versionCheck) {
-                            log("Versions reported: (current: %s, underDeployment: %s). Should I move on? %s",
-                                    environmentDescription.getVersionLabel(),
-                                    getVersionLabel(),
-                                    String.valueOf(bHasDifferentVersion));
-                            if (bHasDifferentVersion) {
-                                continue;
-                            }
-                        }
-                    }
-
-                    // Check health of the environment
-                    final boolean bHealthyP = GREEN_HEALTH.equals(environmentDescription.getHealth());
-                    final boolean bReadyP = STATUS_READY.equals(environmentDescription.getStatus());
-
-                    if (WaitFor.Health == waitFor) {
-                        if (bHealthyP) {
-                            log("Environment Health is 'Green'. Moving on.");
-
-                            moveOn = true;
-                        }
-                    } else if (WaitFor.Status == waitFor) {
-                        if (bReadyP) {
-                            log("Environment Status is 'Ready'. Moving on.");
-
-                            moveOn = true;
-                        }
-                    } else if (WaitFor.Both == waitFor) {
-                        if (bReadyP && bHealthyP) {
-                            log("Environment Status is 'Ready' and Health is 'Green'. Moving on.");
-
-                            moveOn = true;
-                        }
-                    }
-                }
+            if (versionCheck) {
+                waiter.withVersionCheck(getVersionLabel());
             }
 
-            if (moveOn) {
-                return false;
-            }
-
-            log("Environment Update timed-out. Aborting.");
-
-            return true;
+            return EnvironmentWaiter.Outcome.Done != waiter.await(environmentIds);
         }
 
         protected boolean checkVersionLabel(String deployedVersionLabel) {
@@ -378,7 +438,29 @@ public class DeployerCommand implements Constants {
     /**
      * Marks the deployment as successful
      */
+    @SuppressFBWarnings({"EQ_DOESNT_OVERRIDE_EQUALS"})
     public static class MarkAsSuccessful extends DeployerCommand {
+        final Set<Key> requiredKeys = EnumSet.of(Key.EnvironmentDeployed);
+
+        /**
+         * Marks as successful only once something else is provided as well
+         */
+        MarkAsSuccessful after(Key requiredKey) {
+            this.requiredKeys.add(requiredKey);
+
+            return this;
+        }
+
+        @Override
+        public Set<Key> requires() {
+            return EnumSet.copyOf(requiredKeys);
+        }
+
+        @Override
+        public Set<Key> provides() {
+            return EnumSet.of(Key.Success);
+        }
+
         @Override
         public boolean perform() {
             log("Deployment marked as 'successful'. Starting post-deployment cleanup.");
@@ -394,15 +476,21 @@ public class DeployerCommand implements Constants {
      */
     public static class AbortPendingUpdates extends DeployerCommand {
         @Override
-        public boolean perform() throws Exception {
-            final DescribeEnvironmentsRequest req = new DescribeEnvironmentsRequest().
-                    withApplicationName(c.config.getApplicationName()).
-                    withEnvironmentIds(getEnvironmentIds()).
-                    withIncludeDeleted(false);
+        public Set<Key> requires() {
+            return EnumSet.of(Key.EnvironmentId);
+        }
+
+        @Override
+        public Set<Key> provides() {
+            return EnumSet.of(Key.UpdatesAborted);
+        }
 
-            final DescribeEnvironmentsResult result = getAwseb().describeEnvironments(req);
+        @Override
+        public boolean perform() throws Exception {
+            final List<EnvironmentDescription> environments = getPoller().describeEnvironments(getAwseb(),
+                    getEnvironmentIds());
 
-            if (result.getEnvironments().size() < 1) {
+            if (environments.size() < 1) {
                 log("Environment w/ environmentId '%s' not found. Aborting.", getEnvironmentId());
 
                 return true;
@@ -411,10 +499,10 @@ public class DeployerCommand implements Constants {
             // If there are any abortable environment updates set to true.
             boolean abort = false;
 
-            for (int i = 0; i < result.getEnvironments().size(); i++) {
-                String resultingStatus = result.getEnvironments().get(i).getStatus();
-                boolean abortableP = result.getEnvironments().get(i).getAbortableOperationInProgress();
-                String environmentId = result.getEnvironments().get(i).getEnvironmentId();
+            for (int i = 0; i < environments.size(); i++) {
+                String resultingStatus = environments.get(i).getStatus();
+                boolean abortableP = environments.get(i).getAbortableOperationInProgress();
+                String environmentId = environments.get(i).getEnvironmentId();
 
                 if (!STATUS_READY.equals(resultingStatus)) {
                     if (abortableP) {
@@ -433,6 +521,8 @@ public class DeployerCommand implements Constants {
 
             // Call wait for status if found an abortable env update.
             if (abort) {
+                getPoller().invalidate();
+
                 WaitForEnvironment waitForStatus = new WaitForEnvironment(WaitFor.Status).withoutVersionCheck();
 
                 waitForStatus.setDeployerContext(c);
@@ -446,20 +536,18 @@ public class DeployerCommand implements Constants {
     }
 
     public static class VerifyVersion extends DeployerCommand {
+        @Override
+        public Set<Key> requires() {
+            return EnumSet.of(Key.Success);
+        }
+
         @Override
         public boolean release() {
             final Collection<String> environmentIds = getEnvironmentIds();
 
-            final DescribeEnvironmentsRequest req = new DescribeEnvironmentsRequest().
-                    withApplicationName(c.config.getApplicationName()).
-                    withEnvironmentIds(environmentIds).
-                    withIncludeDeleted(false);
-
             final Map<String, EnvironmentDescription> environmentMap = new TreeMap<>();
 
-            final DescribeEnvironmentsResult result = getAwseb().describeEnvironments(req);
-
-            for (EnvironmentDescription environment : result.getEnvironments())
+            for (EnvironmentDescription environment : getPoller().describeEnvironments(getAwseb(), environmentIds))
                 environmentMap.put(environment.getEnvironmentId(), environment);
 
             boolean bInvalid = false;
@@ -17,7 +17,11 @@
 package br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd;
 
 import br.com.ingenieux.jenkins.plugins.awsebdeployment.AWSEBDeploymentConfig;
+import br.com.ingenieux.jenkins.plugins.awsebdeployment.CleanupTask;
+import br.com.ingenieux.jenkins.plugins.awsebdeployment.ClientTuning;
 import br.com.ingenieux.jenkins.plugins.awsebdeployment.Constants;
+import br.com.ingenieux.jenkins.plugins.awsebdeployment.ProxySettings;
+import br.com.ingenieux.jenkins.plugins.awsebdeployment.ResolvedCredentials;
 import com.amazonaws.services.elasticbeanstalk.AWSElasticBeanstalk;
 import com.amazonaws.services.s3.AmazonS3;
 import hudson.FilePath;
@@ -26,11 +30,79 @@ import lombok.Data;
 
 import java.io.PrintStream;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 @Data
 public class DeployerContext implements Constants, Serializable {
     private static final long serialVersionUID = -1L;
 
+    /**
+     * What commands provide to (and require from) each other, so independent ones may be performed concurrently
+     */
+    public enum Key {
+        /**
+         * logger
+         */
+        Logger,
+
+        /**
+         * versionLabel and versionDescription
+         */
+        Parameters,
+
+        /**
+         * s3, awseb, poller and eventTailer
+         */
+        Clients,
+
+        /**
+         * objectKey and s3ObjectPath (i.e., the uploaded archive)
+         */
+        Bundle,
+
+        /**
+         * The Application Version
+         */
+        ApplicationVersion,
+
+        /**
+         * environmentId
+         */
+        EnvironmentId,
+
+        /**
+         * No pending updates on the environments
+         */
+        UpdatesAborted,
+
+        /**
+         * Environments ready to be updated
+         */
+        EnvironmentIdle,
+
+        /**
+         * Environments being updated
+         */
+        EnvironmentUpdated,
+
+        /**
+         * Environments running the new version
+         */
+        EnvironmentDeployed,
+
+        /**
+         * Additional regions running the new version
+         */
+        RegionsDeployed,
+
+        /**
+         * successfulP
+         */
+        Success
+    }
+
     /**
      * Deployer Config
      */
@@ -52,6 +124,21 @@ public class DeployerContext implements Constants, Serializable {
         this.listener = listener;
     }
 
+    /**
+     * AWS Client Tuning (global settings, overridden by the job's)
+     */
+    ClientTuning clientTuning;
+
+    /**
+     * Named Credentials, resolved on the controller (for agents, which can't look them up)
+     */
+    ResolvedCredentials credentials;
+
+    /**
+     * Proxy Settings of the controller (for agents, which can't look them up)
+     */
+    ProxySettings proxySettings;
+
     /**
      * S3 Client
      */
@@ -62,6 +149,16 @@ public class DeployerContext implements Constants, Serializable {
      */
     transient AWSElasticBeanstalk awseb;
 
+    /**
+     * Shared Poller
+     */
+    transient ApplicationPoller poller;
+
+    /**
+     * Event Tailer
+     */
+    transient EnvironmentEventTailer eventTailer;
+
     /**
      * Logger Object
      */
@@ -97,4 +194,30 @@ public class DeployerContext implements Constants, Serializable {
      * Successfull?
      */
     boolean successfulP;
+
+    /**
+     * Prefix of every line logged (e.g., the region, when deploying to several)
+     */
+    String logPrefix = "";
+
+    /**
+     * Bundle to copy from, instead of building one (when deploying to an additional region)
+     */
+    String sourceBucketName;
+
+    String sourceObjectKey;
+
+    String sourceETag;
+
+    long sourceObjectSize;
+
+    /**
+     * Report of the chain being performed
+     */
+    transient DeploymentReport report;
+
+    /**
+     * Cleanup left for the controller to carry out once the deployment is over
+     */
+    List<CleanupTask> cleanupTasks = Collections.synchronizedList(new ArrayList<CleanupTask>());
 }
@@ -0,0 +1,292 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd;
+
+import br.com.ingenieux.jenkins.plugins.awsebdeployment.ApiMetrics;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Timeline of a Deployment: how long each command took to perform (and release), and the calls (and bytes) it made
+ */
+@ExportedBean
+public class DeploymentReport implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public enum Phase {
+        Perform,
+        Release
+    }
+
+    public enum Outcome {
+        Completed,
+        Aborted,
+        Failed
+    }
+
+    private final String applicationName;
+
+    private final String environmentName;
+
+    private final long startTime;
+
+    private String versionLabel;
+
+    private boolean aborted;
+
+    private String failure;
+
+    private final List<Step> steps = new ArrayList<>();
+
+    private final ApiMetrics apiMetrics = new ApiMetrics();
+
+    public DeploymentReport(String applicationName, String environmentName) {
+        this.applicationName = applicationName;
+        this.environmentName = environmentName;
+        this.startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Records a step
+     *
+     * @param startTime  when it started (ms)
+     * @param duration   how long it took (ms)
+     * @param apiMetrics calls it made
+     */
+    public synchronized void record(String command, Phase phase, Outcome outcome, long startTime, long duration,
+                                    ApiMetrics apiMetrics) {
+        steps.add(new Step(command, phase, outcome, startTime - this.startTime, duration, apiMetrics.getCalls(),
+                apiMetrics.getBytesSent(), apiMetrics.getBytesReceived()));
+
+        this.apiMetrics.merge(apiMetrics);
+    }
+
+    /**
+     * Adds the steps (and calls) of another deployment, run alongside this one (e.g., in another region)
+     *
+     * @param prefix prefix of its command names
+     */
+    public void merge(String prefix, DeploymentReport other) {
+        List<Step> otherSteps = other.getSteps();
+
+        synchronized (this) {
+            for (Step step : otherSteps) {
+                steps.add(new Step(prefix + ": " + step.command, step.phase, step.outcome,
+                        other.startTime + step.offset - this.startTime, step.duration, step.apiCalls, step.bytesSent,
+                        step.bytesReceived));
+            }
+        }
+
+        apiMetrics.merge(other.getApiMetrics());
+    }
+
+    @Exported
+    public String getApplicationName() {
+        return applicationName;
+    }
+
+    @Exported
+    public String getEnvironmentName() {
+        return environmentName;
+    }
+
+    @Exported
+    public long getStartTime() {
+        return startTime;
+    }
+
+    @Exported
+    public synchronized String getVersionLabel() {
+        return versionLabel;
+    }
+
+    public synchronized void setVersionLabel(String versionLabel) {
+        this.versionLabel = versionLabel;
+    }
+
+    @Exported
+    public synchronized boolean isAborted() {
+        return aborted;
+    }
+
+    public synchronized void setAborted(boolean aborted) {
+        this.aborted = aborted;
+    }
+
+    /**
+     * Message of the exception the deployment failed with, if any
+     */
+    @Exported
+    public synchronized String getFailure() {
+        return failure;
+    }
+
+    public synchronized void setFailure(String failure) {
+        this.failure = failure;
+    }
+
+    /**
+     * Steps, in the order they started
+     */
+    @Exported
+    public synchronized List<Step> getSteps() {
+        List<Step> result = new ArrayList<>(steps);
+
+        Collections.sort(result, new Comparator<Step>() {
+            @Override
+            public int compare(Step o1, Step o2) {
+                return Long.compare(o1.offset, o2.offset);
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Wall Time, from the start of the first step to the end of the last one (ms)
+     */
+    @Exported
+    public synchronized long getDuration() {
+        long result = 0;
+
+        for (Step step : steps) {
+            result = Math.max(result, step.offset + step.duration);
+        }
+
+        return result;
+    }
+
+    @Exported
+    public long getApiCalls() {
+        return apiMetrics.getCalls();
+    }
+
+    @Exported
+    public long getBytesSent() {
+        return apiMetrics.getBytesSent();
+    }
+
+    @Exported
+    public long getBytesReceived() {
+        return apiMetrics.getBytesReceived();
+    }
+
+    /**
+     * Calls made, per operation
+     */
+    @Exported
+    public ApiMetrics getApiMetrics() {
+        return apiMetrics;
+    }
+
+    /**
+     * Share of the wall time an amount of time represents (e.g., for drawing the timeline)
+     *
+     * @param millis time (ms)
+     * @return percentage, formatted as CSS expects it
+     */
+    public String percentOf(long millis) {
+        return String.format(Locale.ENGLISH, "%.2f%%", 100.0 * millis / Math.max(1, getDuration()));
+    }
+
+    /**
+     * Represents a Command performed (or released)
+     */
+    @ExportedBean
+    public static class Step implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final String command;
+
+        final Phase phase;
+
+        final Outcome outcome;
+
+        /**
+         * Since the start of the deployment (ms)
+         */
+        final long offset;
+
+        final long duration;
+
+        final long apiCalls;
+
+        final long bytesSent;
+
+        final long bytesReceived;
+
+        Step(String command, Phase phase, Outcome outcome, long offset, long duration, long apiCalls,
+             long bytesSent, long bytesReceived) {
+            this.command = command;
+            this.phase = phase;
+            this.outcome = outcome;
+            this.offset = offset;
+            this.duration = duration;
+            this.apiCalls = apiCalls;
+            this.bytesSent = bytesSent;
+            this.bytesReceived = bytesReceived;
+        }
+
+        @Exported
+        public String getCommand() {
+            return command;
+        }
+
+        @Exported
+        public Phase getPhase() {
+            return phase;
+        }
+
+        @Exported
+        public Outcome getOutcome() {
+            return outcome;
+        }
+
+        @Exported
+        public long getOffset() {
+            return offset;
+        }
+
+        @Exported
+        public long getDuration() {
+            return duration;
+        }
+
+        @Exported
+        public long getApiCalls() {
+            return apiCalls;
+        }
+
+        @Exported
+        public long getBytesSent() {
+            return bytesSent;
+        }
+
+        @Exported
+        public long getBytesReceived() {
+            return bytesReceived;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd;
+
+import hudson.Util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Agent-local cache of already deflated zip entries
+ *
+ * Entries are keyed by their path, size, modification time, content CRC and compression settings. On a hit, the
+ * compressed bytes are copied as-is into the new archive instead of being deflated again.
+ *
+ * The cache is shared by every build running on this JVM. Its size is bounded with a LRU eviction policy,
+ * applied through {@link #trim(long)}.
+ */
+public class EntryCache {
+    private static final String SUFFIX = ".z";
+
+    private static final Map<File, EntryCache> INSTANCES = new HashMap<>();
+
+    private final File directory;
+
+    /**
+     * Key to Size, in access order
+     */
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(1024, 0.75f, true);
+
+    private long totalBytes = 0L;
+
+    private boolean loaded = false;
+
+    private EntryCache(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Default location: <code>~/.awseb-deployment/entry-cache</code>
+     */
+    public static EntryCache getDefault() {
+        return forDirectory(new File(System.getProperty("user.home"), ".awseb-deployment/entry-cache"));
+    }
+
+    public static synchronized EntryCache forDirectory(File directory) {
+        EntryCache result = INSTANCES.get(directory);
+
+        if (null == result) {
+            result = new EntryCache(directory);
+
+            INSTANCES.put(directory, result);
+        }
+
+        return result;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public synchronized long getTotalBytes() throws IOException {
+        load();
+
+        return totalBytes;
+    }
+
+    /**
+     * Looks up a cached entry
+     *
+     * @return the file holding its compressed bytes, or null if not cached
+     */
+    public synchronized File lookup(String key) throws IOException {
+        load();
+
+        if (!index.containsKey(key)) {
+            return null;
+        }
+
+        File file = fileFor(key);
+
+        if (!file.exists()) {
+            totalBytes -= index.remove(key);
+
+            return null;
+        }
+
+        // Keeps LRU order across restarts
+        file.setLastModified(System.currentTimeMillis());
+
+        return file;
+    }
+
+    /**
+     * Stores compressed bytes for an entry
+     *
+     * @return the cached file
+     */
+    public File store(String key, byte[] data, int length) throws IOException {
+        File tempFile = newTempFile();
+
+        try (OutputStream outputStream = new FileOutputStream(tempFile)) {
+            outputStream.write(data, 0, length);
+        }
+
+        return commit(key, tempFile);
+    }
+
+    /**
+     * Creates a temporary file inside the cache directory, to be handed over to {@link #commit(String, File)}
+     */
+    public File newTempFile() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Unable to create cache directory " + directory);
+        }
+
+        return File.createTempFile("entry-", ".tmp", directory);
+    }
+
+    /**
+     * Moves a temporary file into the cache, atomically
+     */
+    public File commit(String key, File tempFile) throws IOException {
+        File file = fileFor(key);
+
+        if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs() && !file.getParentFile().isDirectory()) {
+            throw new IOException("Unable to create cache directory " + file.getParentFile());
+        }
+
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+
+        synchronized (this) {
+            load();
+
+            Long previous = index.put(key, file.length());
+
+            totalBytes += file.length() - ((null != previous) ? previous : 0L);
+        }
+
+        return file;
+    }
+
+    /**
+     * Evicts least recently used entries until the cache fits
+     *
+     * @return number of entries evicted
+     */
+    public synchronized int trim(long maxBytes) throws IOException {
+        load();
+
+        int evicted = 0;
+
+        for (Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator(); totalBytes > maxBytes && it.hasNext(); ) {
+            Map.Entry<String, Long> entry = it.next();
+
+            Files.deleteIfExists(fileFor(entry.getKey()).toPath());
+
+            totalBytes -= entry.getValue();
+            evicted++;
+
+            it.remove();
+        }
+
+        return evicted;
+    }
+
+    private File fileFor(String key) {
+        return new File(new File(directory, key.substring(0, 2)), key + SUFFIX);
+    }
+
+    /**
+     * Rebuilds the index from disk, oldest first
+     */
+    private void load() throws IOException {
+        if (loaded) {
+            return;
+        }
+
+        List<File> files = new ArrayList<>();
+        File[] buckets = directory.listFiles();
+
+        for (File bucket : (null != buckets) ? buckets : new File[0]) {
+            File[] bucketFiles = bucket.listFiles();
+
+            if (bucket.isDirectory() && null != bucketFiles) {
+                Collections.addAll(files, bucketFiles);
+            } else if (bucket.getName().endsWith(".tmp")) {
+                // Leftovers from an interrupted build
+                Files.deleteIfExists(bucket.toPath());
+            }
+        }
+
+        final Map<File, Long> lastModified = new HashMap<>();
+
+        for (File file : files) {
+            lastModified.put(file, file.lastModified());
+        }
+
+        Collections.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                return Long.compare(lastModified.get(o1), lastModified.get(o2));
+            }
+        });
+
+        for (File file : files) {
+            String name = file.getName();
+
+            if (name.endsWith(SUFFIX)) {
+                index.put(name.substring(0, name.length() - SUFFIX.length()), file.length());
+
+                totalBytes += file.length();
+            }
+        }
+
+        loaded = true;
+    }
+
+    /**
+     * Computes the key of an entry
+     */
+    public static String keyFor(String entryName, long size, long lastModified, long crc, int level) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+
+            digest.update(String.format("%s\u0000%d\u0000%d\u0000%08x\u0000%d", entryName, size, lastModified, crc,
+                    level).getBytes(StandardCharsets.UTF_8));
+
+            return Util.toHexString(digest.digest());
+        } catch (NoSuchAlgorithmException exc) {
+            throw new IllegalStateException(exc);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd;
+
+import com.amazonaws.services.elasticbeanstalk.AWSElasticBeanstalk;
+import com.amazonaws.services.elasticbeanstalk.model.EventDescription;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tails the Events of an Application's Environments, across polls (and commands) of a deployment
+ *
+ * Every poll asks the {@link ApplicationPoller} (i.e., a shared describeEvents call for the whole application) for
+ * the events since the oldest cursor of the environments being tailed. Cursors are inclusive (events sharing a
+ * timestamp may show up late), so events already seen are dropped by means of a bounded LRU of their keys. As
+ * cursors keep up with the newest event seen, each poll only brings what's new, no matter how long the deployment
+ * takes.
+ */
+public class EnvironmentEventTailer {
+    static final int MAX_SEEN_EVENTS = 1024;
+
+    private final ApplicationPoller poller;
+
+    private final AWSElasticBeanstalk awseb;
+
+    private final long since;
+
+    /**
+     * Timestamp of the last event seen, for each environment (by name)
+     */
+    private final Map<String, Long> cursors = new HashMap<>();
+
+    private final Set<String> seenEvents = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_SEEN_EVENTS;
+        }
+    });
+
+    /**
+     * @param since events older than that (in milliseconds) are never reported
+     */
+    public EnvironmentEventTailer(ApplicationPoller poller, AWSElasticBeanstalk awseb, long since) {
+        this.poller = poller;
+        this.awseb = awseb;
+        this.since = since;
+    }
+
+    /**
+     * Starts tailing the events of an environment (from the beginning), unless already doing so
+     */
+    public synchronized void track(String environmentName) {
+        if (!cursors.containsKey(environmentName)) {
+            cursors.put(environmentName, since);
+        }
+    }
+
+    /**
+     * Polls for new events of the environments being tailed
+     *
+     * @return new events, oldest first
+     */
+    public synchronized List<EventDescription> poll() {
+        List<EventDescription> result = new ArrayList<>();
+
+        if (cursors.isEmpty()) {
+            return result;
+        }
+
+        long startTime = Collections.min(cursors.values());
+        List<EventDescription> events = poller.describeEvents(awseb, startTime);
+        long highWaterMark = startTime;
+
+        for (EventDescription event : events) {
+            long timestamp = event.getEventDate().getTime();
+            Long cursor = cursors.get(event.getEnvironmentName());
+
+            highWaterMark = Math.max(highWaterMark, timestamp);
+
+            if (null == cursor || timestamp < cursor || !seenEvents.add(ApplicationPoller.keyOf(event))) {
+                continue;
+            }
+
+            cursors.put(event.getEnvironmentName(), timestamp);
+
+            result.add(event);
+        }
+
+        // Whatever was older than the newest event of the application has been seen already
+        for (Map.Entry<String, Long> entry : cursors.entrySet()) {
+            entry.setValue(Math.max(entry.getValue(), highWaterMark));
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd;
+
+import br.com.ingenieux.jenkins.plugins.awsebdeployment.Constants;
+import com.amazonaws.services.elasticbeanstalk.model.EnvironmentDescription;
+import com.amazonaws.services.elasticbeanstalk.model.EventDescription;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Waits for a set of Environments at once
+ *
+ * Every tick refreshes all the pending environments at once (through the {@link ApplicationPoller}), so waiting
+ * for several environments takes about as long as waiting for the slowest one. It finishes once every environment
+ * is done, or as soon as any of them fails (i.e., is gone or being terminated).
+ */
+public class EnvironmentWaiter implements Constants {
+    static final String STATUS_TERMINATING = "Terminating";
+
+    static final String STATUS_TERMINATED = "Terminated";
+
+    /**
+     * Outcome of a Wait
+     */
+    public enum Outcome {
+        Done,
+        Failed,
+        TimedOut
+    }
+
+    /**
+     * Phase of a single Environment
+     */
+    enum Phase {
+        Waiting,
+        Done,
+        Failed
+    }
+
+    private final DeployerCommand command;
+
+    private final WaitFor waitFor;
+
+    private String expectedVersionLabel;
+
+    private final Map<String, Tracker> trackers = new LinkedHashMap<>();
+
+    /**
+     * Did anything happen during the last tick?
+     */
+    private boolean progressed;
+
+    EnvironmentWaiter(DeployerCommand command, WaitFor waitFor) {
+        this.command = command;
+        this.waitFor = waitFor;
+    }
+
+    /**
+     * Also waits for environments to report a given version label
+     */
+    EnvironmentWaiter withVersionCheck(String expectedVersionLabel) {
+        this.expectedVersionLabel = expectedVersionLabel;
+
+        return this;
+    }
+
+    /**
+     * Waits for every environment
+     *
+     * Polls often right after the update and whenever something happens, backing off (up to sleepTime) while nothing
+     * does, until all of them are done or waitTimeout elapses.
+     */
+    public Outcome await(Collection<String> environmentIds) throws InterruptedException {
+        for (String environmentId : environmentIds) {
+            trackers.put(environmentId, new Tracker(environmentId));
+        }
+
+        int sleepTime = (command.getConfig().getSleepTime() != null) ? command.getConfig().getSleepTime()
+                : SLEEP_TIME;
+        int maxAttempts = (command.getConfig().getMaxAttempts() != null) ? command.getConfig().getMaxAttempts()
+                : MAX_ATTEMPTS;
+        int waitTimeout = (command.getConfig().getWaitTimeout() != null) ? command.getConfig().getWaitTimeout()
+                : maxAttempts * sleepTime;
+
+        PollScheduler scheduler = new PollScheduler(TimeUnit.SECONDS.toMillis(sleepTime),
+                TimeUnit.SECONDS.toMillis(waitTimeout));
+
+        for (int nAttempt = 1; !scheduler.isExpired(); nAttempt++) {
+            scheduler.sleep();
+
+            command.log("Checking health/status of environmentIds %s attempt %d (%d s left)",
+                    getPendingEnvironmentIds(), nAttempt, TimeUnit.MILLISECONDS.toSeconds(scheduler.getRemaining()));
+
+            Outcome outcome = tick();
+
+            if (null != outcome) {
+                return outcome;
+            }
+
+            if (progressed) {
+                scheduler.reset();
+            }
+        }
+
+        command.log("Environment Update timed-out after %d s. Aborting.", waitTimeout);
+
+        return Outcome.TimedOut;
+    }
+
+    /**
+     * Refreshes every pending environment
+     *
+     * New events (or any status/health transition) mark the tick as progressed, so the next one comes soon.
+     *
+     * @return the outcome, or null while still waiting
+     */
+    Outcome tick() {
+        List<String> pendingEnvironmentIds = getPendingEnvironmentIds();
+        Map<String, EnvironmentDescription> environments = new HashMap<>();
+
+        for (EnvironmentDescription environment : command.getPoller().describeEnvironments(command.getAwseb(),
+                pendingEnvironmentIds)) {
+            environments.put(environment.getEnvironmentId(), environment);
+
+            trackers.get(environment.getEnvironmentId()).environmentName = environment.getEnvironmentName();
+
+            command.getEventTailer().track(environment.getEnvironmentName());
+        }
+
+        progressed = logEvents() > 0;
+
+        for (String environmentId : pendingEnvironmentIds) {
+            Tracker tracker = trackers.get(environmentId);
+
+            if (Phase.Failed == tracker.update(environments.get(environmentId))) {
+                return Outcome.Failed;
+            }
+
+            progressed |= tracker.transitioned;
+        }
+
+        return getPendingEnvironmentIds().isEmpty() ? Outcome.Done : null;
+    }
+
+    List<String> getPendingEnvironmentIds() {
+        List<String> result = new ArrayList<>();
+
+        for (Tracker tracker : trackers.values()) {
+            if (Phase.Waiting == tracker.phase) {
+                result.add(tracker.environmentId);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Logs new events of the environments being waited for
+     *
+     * @return how many were logged
+     */
+    private int logEvents() {
+        List<EventDescription> events = command.getEventTailer().poll();
+
+        for (EventDescription eventDescription : events) {
+            command.log("%s [%s] %s: %s", eventDescription.getEventDate(), eventDescription.getSeverity(),
+                    eventDescription.getEnvironmentName(), eventDescription.getMessage());
+        }
+
+        return events.size();
+    }
+
+    /**
+     * Tracks the Phase of an Environment
+     */
+    class Tracker {
+        final String environmentId;
+
+        String environmentName;
+
+        String lastStatus;
+
+        String lastHealth;
+
+        /**
+         * Did status or health change on the last update?
+         */
+        boolean transitioned;
+
+        Phase phase = Phase.Waiting;
+
+        Tracker(String environmentId) {
+            this.environmentId = environmentId;
+        }
+
+        Phase update(EnvironmentDescription environment) {
+            if (null == environment) {
+                command.log("Environment '%s' not found. Aborting.", environmentId);
+
+                return phase = Phase.Failed;
+            }
+
+            String status = environment.getStatus();
+            String health = environment.getHealth();
+
+            transitioned = !StringUtils.equals(status, lastStatus) || !StringUtils.equals(health, lastHealth);
+
+            if (transitioned) {
+                command.log("Environment '%s' (%s): status '%s', health '%s', version '%s'", environmentName,
+                        environmentId, status, health, environment.getVersionLabel());
+
+                lastStatus = status;
+                lastHealth = health;
+            }
+
+            if (STATUS_TERMINATING.equals(status) || STATUS_TERMINATED.equals(status)) {
+                command.log("Environment '%s' is being terminated. Aborting.", environmentName);
+
+                return phase = Phase.Failed;
+            }
+
+            // Before checking status and readiness, we must check version unless told otherwise
+            if (null != expectedVersionLabel && !expectedVersionLabel.equals(environment.getVersionLabel())) {
+                command.log("Versions reported for '%s': (current: %s, underDeployment: %s). Waiting.",
+                        environmentName, environment.getVersionLabel(), expectedVersionLabel);
+
+                return phase;
+            }
+
+            final boolean bHealthyP = GREEN_HEALTH.equals(health);
+            final boolean bReadyP = STATUS_READY.equals(status);
+
+            if (WaitFor.Health == waitFor && bHealthyP) {
+                command.log("Environment '%s' Health is 'Green'. Moving on.", environmentName);
+
+                phase = Phase.Done;
+            } else if (WaitFor.Status == waitFor && bReadyP) {
+                command.log("Environment '%s' Status is 'Ready'. Moving on.", environmentName);
+
+                phase = Phase.Done;
+            } else if (WaitFor.Both == waitFor && bReadyP && bHealthyP) {
+                command.log("Environment '%s' Status is 'Ready' and Health is 'Green'. Moving on.", environmentName);
+
+                phase = Phase.Done;
+            }
+
+            return phase;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Ignore Rules, in gitignore syntax (as used by the EB CLI <code>.ebignore</code> file)
+ *
+ * Supports comments, negation ('!'), directory-only rules (trailing '/'), rules anchored to the root (with a '/'
+ * other than a trailing one), '*', '?', '[...]' and '**'. As in git, the last matching rule wins, and there's no
+ * way to re-include a file inside an ignored directory, so ignored directories needn't be walked into at all.
+ */
+public class IgnoreRules {
+    public static final String EBIGNORE = ".ebignore";
+
+    private final List<Rule> rules = new ArrayList<>();
+
+    public static IgnoreRules parse(List<String> lines) {
+        IgnoreRules result = new IgnoreRules();
+
+        for (String line : lines) {
+            Rule rule = Rule.parse(line);
+
+            if (null != rule) {
+                result.rules.add(rule);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Loads the rules from a file
+     *
+     * @return null when there's no such file
+     */
+    public static IgnoreRules load(File file) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+
+        return parse(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+    }
+
+    public int size() {
+        return rules.size();
+    }
+
+    /**
+     * Is a path ignored?
+     *
+     * @param relativePath '/'-separated, relative to where the rules live
+     * @param directory    is it a directory?
+     */
+    public boolean isIgnored(String relativePath, boolean directory) {
+        for (int i = rules.size() - 1; i >= 0; i--) {
+            Rule rule = rules.get(i);
+
+            if (rule.matches(relativePath, directory)) {
+                return !rule.negated;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Represents a Rule
+     */
+    static class Rule {
+        final boolean negated;
+
+        final boolean directoryOnly;
+
+        final Pattern pattern;
+
+        Rule(boolean negated, boolean directoryOnly, Pattern pattern) {
+            this.negated = negated;
+            this.directoryOnly = directoryOnly;
+            this.pattern = pattern;
+        }
+
+        boolean matches(String relativePath, boolean directory) {
+            return (directory || !directoryOnly) && pattern.matcher(relativePath).matches();
+        }
+
+        /**
+         * Parses a line
+         *
+         * @return null for blank lines and comments
+         */
+        static Rule parse(String line) {
+            String text = stripTrailingSpaces(line);
+
+            if (text.isEmpty() || text.startsWith("#")) {
+                return null;
+            }
+
+            boolean negated = text.startsWith("!");
+
+            if (negated) {
+                text = text.substring(1);
+            }
+
+            boolean directoryOnly = text.endsWith("/") && !text.endsWith("\\/");
+
+            if (directoryOnly) {
+                text = text.substring(0, text.length() - 1);
+            }
+
+            if (text.isEmpty()) {
+                return null;
+            }
+
+            // A slash at the start or in the middle anchors the rule to the root. Otherwise, it matches at any level.
+            boolean anchored = text.contains("/");
+
+            if (text.startsWith("/")) {
+                text = text.substring(1);
+            }
+
+            String regex = (anchored ? "" : "(?:.*/)?") + toRegex(text);
+
+            return new Rule(negated, directoryOnly, Pattern.compile(regex));
+        }
+
+        private static String stripTrailingSpaces(String line) {
+            int end = line.length();
+
+            while (end > 0 && ' ' == line.charAt(end - 1) && !(end > 1 && '\\' == line.charAt(end - 2))) {
+                end--;
+            }
+
+            return line.substring(0, end);
+        }
+
+        private static String toRegex(String glob) {
+            StringBuilder result = new StringBuilder();
+            int n = glob.length();
+
+            for (int i = 0; i < n; i++) {
+                char c = glob.charAt(i);
+
+                if ('*' == c && i + 1 < n && '*' == glob.charAt(i + 1)) {
+                    boolean atStart = (0 == i);
+                    boolean atEnd = (i + 2 == n);
+                    boolean slashBefore = atStart || '/' == glob.charAt(i - 1);
+                    boolean slashAfter = atEnd || '/' == glob.charAt(i + 2);
+
+                    if (slashBefore && slashAfter) {
+                        if (atEnd) {
+                            // "foo/**": everything inside
+                            result.append(".*");
+                        } else {
+                            // "**/foo" and "foo/**/bar": zero or more directories
+                            result.append("(?:.*/)?");
+
+                            i++;
+                        }
+
+                        i++;
+
+                        continue;
+                    }
+
+                    // Otherwise, just like '*'
+                    result.append("[^/]*");
+
+                    i++;
+                } else if ('*' == c) {
+                    result.append("[^/]*");
+                } else if ('?' == c) {
+                    result.append("[^/]");
+                } else if ('[' == c && glob.indexOf(']', i + 2) > 0) {
+                    int end = glob.indexOf(']', i + 2);
+                    String set = glob.substring(i + 1, end);
+
+                    if (set.startsWith("!")) {
+                        set = "^" + set.substring(1);
+                    }
+
+                    result.append('[').append(set.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+
+                    i = end;
+                } else if ('\\' == c && i + 1 < n) {
+                    result.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+                } else {
+                    result.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+
+            return result.toString();
+        }
+    }
+}
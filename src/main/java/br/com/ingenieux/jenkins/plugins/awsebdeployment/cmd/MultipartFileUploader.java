@@ -0,0 +1,141 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Uploads a local file as a S3 Multipart Upload, sending several parts at once
+ *
+ * Parts are read straight from the file with positional reads, so workers share a single channel without
+ * seeking, and a failed part can be read and sent again on its own.
+ */
+public class MultipartFileUploader {
+    /**
+     * S3 Limit
+     */
+    static final int MAX_PARTS = 10000;
+
+    private final AmazonS3 s3;
+
+    private final int partSize;
+
+    private final int concurrency;
+
+    public MultipartFileUploader(AmazonS3 s3, int partSize, int concurrency) {
+        this.s3 = s3;
+        this.partSize = partSize;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Uploads a file
+     *
+     * @return the completed upload
+     */
+    public MultipartUpload upload(File file, String bucketName, String objectKey, ObjectMetadata objectMetadata)
+            throws IOException {
+        final MultipartUpload upload = new MultipartUpload(s3, bucketName, objectKey, objectMetadata);
+        final ExecutorService executor = Executors.newFixedThreadPool(concurrency,
+                new ThreadFactoryBuilder().setNameFormat("awseb-upload-%d").setDaemon(true).build());
+
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            final long effectivePartSize = Math.max(partSize, (size + MAX_PARTS - 1) / MAX_PARTS);
+            int partCount = (int) Math.max(1L, (size + effectivePartSize - 1) / effectivePartSize);
+
+            List<Future<PartETag>> parts = new ArrayList<>(partCount);
+
+            for (int i = 0; i < partCount; i++) {
+                final int partNumber = i + 1;
+                final long position = i * effectivePartSize;
+                final int length = (int) Math.min(effectivePartSize, size - position);
+
+                parts.add(executor.submit(new Callable<PartETag>() {
+                    @Override
+                    public PartETag call() throws Exception {
+                        byte[] data = new byte[length];
+
+                        readFully(channel, data, position);
+
+                        return upload.uploadPart(partNumber, data, length);
+                    }
+                }));
+            }
+
+            List<PartETag> partETags = new ArrayList<>(partCount);
+
+            for (Future<PartETag> part : parts) {
+                partETags.add(waitFor(part));
+            }
+
+            upload.complete(partETags);
+
+            return upload;
+        } catch (IOException | RuntimeException exc) {
+            upload.abort();
+
+            throw exc;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    static void readFully(FileChannel channel, byte[] data, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+
+        while (buffer.hasRemaining()) {
+            if (-1 == channel.read(buffer, position + buffer.position())) {
+                throw new EOFException("File shrunk while uploading");
+            }
+        }
+    }
+
+    static <T> T waitFor(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException("Interrupted while uploading");
+        } catch (ExecutionException exc) {
+            if (exc.getCause() instanceof IOException) {
+                throw (IOException) exc.getCause();
+            }
+
+            throw new IOException(exc.getCause());
+        }
+    }
+}
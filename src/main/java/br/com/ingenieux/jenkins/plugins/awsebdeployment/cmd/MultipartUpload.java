@@ -0,0 +1,225 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.CopyPartResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Represents a S3 Multipart Upload, where each part is retried on its own
+ *
+ * A failed part never restarts the whole object: only that part is sent again, with exponential backoff.
+ */
+public class MultipartUpload {
+    /**
+     * Max Attempts for each Part
+     */
+    static final int MAX_PART_ATTEMPTS = 4;
+
+    private static final long BASE_BACKOFF = TimeUnit.SECONDS.toMillis(1);
+
+    private final AmazonS3 s3;
+
+    private final String bucketName;
+
+    private final String objectKey;
+
+    private final String uploadId;
+
+    private final AtomicInteger retriedParts = new AtomicInteger();
+
+    public MultipartUpload(AmazonS3 s3, String bucketName, String objectKey, ObjectMetadata objectMetadata) {
+        this.s3 = s3;
+        this.bucketName = bucketName;
+        this.objectKey = objectKey;
+        this.uploadId = s3.initiateMultipartUpload(
+                new InitiateMultipartUploadRequest(bucketName, objectKey, objectMetadata)).getUploadId();
+    }
+
+    public AmazonS3 getS3() {
+        return s3;
+    }
+
+    public String getBucketName() {
+        return bucketName;
+    }
+
+    public String getObjectKey() {
+        return objectKey;
+    }
+
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    /**
+     * Number of part attempts which had to be retried
+     */
+    public int getRetriedParts() {
+        return retriedParts.get();
+    }
+
+    /**
+     * Uploads a part, retrying it on transient failures
+     */
+    public PartETag uploadPart(final int partNumber, final byte[] data, final int length) throws IOException {
+        return withRetries(partNumber, new PartRequest() {
+            @Override
+            public PartETag send() {
+                UploadPartRequest req = new UploadPartRequest()
+                        .withBucketName(bucketName)
+                        .withKey(objectKey)
+                        .withUploadId(uploadId)
+                        .withPartNumber(partNumber)
+                        .withPartSize(length)
+                        .withInputStream(new ByteArrayInputStream(data, 0, length));
+
+                return s3.uploadPart(req).getPartETag();
+            }
+        });
+    }
+
+    /**
+     * Copies a part from a byte range of another S3 Object, retrying it on transient failures
+     *
+     * @param sourceETag when set, the copy fails unless the source object still has this ETag
+     * @param firstByte  first byte of the range
+     * @param lastByte   last byte of the range (inclusive)
+     */
+    public PartETag copyPart(final int partNumber, final String sourceBucketName, final String sourceObjectKey,
+                             final String sourceETag, final long firstByte, final long lastByte) throws IOException {
+        return withRetries(partNumber, new PartRequest() {
+            @Override
+            public PartETag send() throws IOException {
+                CopyPartRequest req = new CopyPartRequest()
+                        .withSourceBucketName(sourceBucketName)
+                        .withSourceKey(sourceObjectKey)
+                        .withDestinationBucketName(bucketName)
+                        .withDestinationKey(objectKey)
+                        .withUploadId(uploadId)
+                        .withPartNumber(partNumber)
+                        .withFirstByte(firstByte)
+                        .withLastByte(lastByte);
+
+                if (null != sourceETag) {
+                    req.withMatchingETagConstraint(sourceETag);
+                }
+
+                CopyPartResult result = s3.copyPart(req);
+
+                if (null == result) {
+                    throw new IOException(String.format("s3://%s/%s changed since it was recorded", sourceBucketName,
+                            sourceObjectKey));
+                }
+
+                return result.getPartETag();
+            }
+        });
+    }
+
+    private PartETag withRetries(int partNumber, PartRequest partRequest) throws IOException {
+        for (int nAttempt = 1; ; nAttempt++) {
+            try {
+                return partRequest.send();
+            } catch (AmazonClientException exc) {
+                if (nAttempt >= MAX_PART_ATTEMPTS || !isRetryable(exc)) {
+                    throw new IOException(String.format("Failure uploading part %d of s3://%s/%s after %d attempt(s)",
+                            partNumber, bucketName, objectKey, nAttempt), exc);
+                }
+
+                retriedParts.incrementAndGet();
+
+                backoff(nAttempt);
+            }
+        }
+    }
+
+    /**
+     * Completes the upload. Parts may be given in any order.
+     */
+    public void complete(List<PartETag> partETags) {
+        List<PartETag> sortedPartETags = new ArrayList<>(partETags);
+
+        Collections.sort(sortedPartETags, new Comparator<PartETag>() {
+            @Override
+            public int compare(PartETag o1, PartETag o2) {
+                return Integer.compare(o1.getPartNumber(), o2.getPartNumber());
+            }
+        });
+
+        s3.completeMultipartUpload(new CompleteMultipartUploadRequest(bucketName, objectKey, uploadId,
+                sortedPartETags));
+    }
+
+    /**
+     * Aborts the upload, so S3 discards the parts sent so far
+     */
+    public void abort() {
+        try {
+            s3.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, objectKey, uploadId));
+        } catch (RuntimeException ignored) {
+            // Best Effort - Dangling uploads are reaped by the bucket lifecycle rules
+        }
+    }
+
+    interface PartRequest {
+        PartETag send() throws IOException;
+    }
+
+    static boolean isRetryable(AmazonClientException exc) {
+        if (!(exc instanceof AmazonServiceException)) {
+            return true;
+        }
+
+        AmazonServiceException serviceException = (AmazonServiceException) exc;
+        int statusCode = serviceException.getStatusCode();
+
+        return statusCode >= 500 || 429 == statusCode || "RequestTimeout".equals(serviceException.getErrorCode());
+    }
+
+    static void backoff(int nAttempt) throws InterruptedIOException {
+        long delay = BASE_BACKOFF << (nAttempt - 1);
+
+        try {
+            Thread.sleep(delay + ThreadLocalRandom.current().nextLong(delay));
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException("Interrupted while retrying");
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * OutputStream feeding an S3 Multipart Upload
+ *
+ * Whatever gets written is cut into parts of <code>partSize</code> bytes, which are uploaded in the background
+ * while the caller keeps writing. At most <code>partsInFlight</code> parts are uploading at once, so memory
+ * stays bounded by <code>partSize * (partsInFlight + 1)</code>.
+ *
+ * The upload is only completed on {@link #close()}. Callers must {@link #abort()} it on failure instead.
+ */
+public class MultipartUploadOutputStream extends OutputStream {
+    private final MultipartUpload upload;
+
+    private final int partSize;
+
+    private final int maxBuffers;
+
+    private final ExecutorService executor;
+
+    private final BlockingQueue<byte[]> freeBuffers = new LinkedBlockingQueue<>();
+
+    private final List<Future<PartETag>> parts = new ArrayList<>();
+
+    /**
+     * First part failure (if any), set by the part tasks themselves
+     */
+    private volatile Throwable failure;
+
+    private int allocatedBuffers = 0;
+
+    private byte[] buffer;
+
+    private int position = 0;
+
+    private long bytesWritten = 0L;
+
+    private boolean closed = false;
+
+    public MultipartUploadOutputStream(AmazonS3 s3, String bucketName, String objectKey, int partSize,
+                                       int partsInFlight) {
+        this.partSize = partSize;
+        this.maxBuffers = partsInFlight + 1;
+        this.executor = Executors.newFixedThreadPool(partsInFlight,
+                new ThreadFactoryBuilder().setNameFormat("awseb-upload-%d").setDaemon(true).build());
+
+        ObjectMetadata objectMetadata = new ObjectMetadata();
+
+        objectMetadata.setContentType("application/zip");
+
+        this.upload = new MultipartUpload(s3, bucketName, objectKey, objectMetadata);
+    }
+
+    public MultipartUpload getUpload() {
+        return upload;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public int getPartCount() {
+        return parts.size();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+
+        while (len > 0) {
+            if (null == buffer) {
+                buffer = nextBuffer();
+            }
+
+            int n = Math.min(len, partSize - position);
+
+            System.arraycopy(b, off, buffer, position, n);
+
+            position += n;
+            off += n;
+            len -= n;
+            bytesWritten += n;
+
+            if (position == partSize) {
+                submitPart();
+            }
+        }
+    }
+
+    /**
+     * Uploads the remaining buffer, waits for every part and completes the upload
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        try {
+            if (position > 0 || parts.isEmpty()) {
+                if (null == buffer) {
+                    buffer = nextBuffer();
+                }
+
+                submitPart();
+            }
+
+            closed = true;
+
+            List<PartETag> partETags = new ArrayList<>(parts.size());
+
+            for (Future<PartETag> part : parts) {
+                partETags.add(MultipartFileUploader.waitFor(part));
+            }
+
+            upload.complete(partETags);
+        } catch (IOException | RuntimeException exc) {
+            abort();
+
+            throw exc;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Cancels pending parts and aborts the multipart upload, so S3 discards what was sent so far
+     */
+    public void abort() {
+        closed = true;
+
+        for (Future<PartETag> part : parts) {
+            part.cancel(true);
+        }
+
+        executor.shutdownNow();
+
+        upload.abort();
+    }
+
+    private void submitPart() throws IOException {
+        checkFailedParts();
+
+        final byte[] data = buffer;
+        final int length = position;
+        final int partNumber = parts.size() + 1;
+
+        buffer = null;
+        position = 0;
+
+        parts.add(executor.submit(new Callable<PartETag>() {
+            @Override
+            public PartETag call() throws Exception {
+                try {
+                    return upload.uploadPart(partNumber, data, length);
+                } catch (Exception exc) {
+                    if (null == failure) {
+                        failure = exc;
+                    }
+
+                    throw exc;
+                } finally {
+                    freeBuffers.offer(data);
+                }
+            }
+        }));
+    }
+
+    /**
+     * Recycles a buffer from a finished part, allocating a new one only while under the in-flight limit
+     */
+    private byte[] nextBuffer() throws IOException {
+        byte[] result = freeBuffers.poll();
+
+        if (null != result) {
+            return result;
+        }
+
+        if (allocatedBuffers < maxBuffers) {
+            allocatedBuffers++;
+
+            return new byte[partSize];
+        }
+
+        try {
+            return freeBuffers.take();
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException("Interrupted while waiting for an upload slot");
+        }
+    }
+
+    /**
+     * Surfaces failures early, instead of letting the caller compress everything first
+     */
+    private void checkFailedParts() throws IOException {
+        Throwable exc = failure;
+
+        if (exc instanceof IOException) {
+            throw (IOException) exc;
+        } else if (null != exc) {
+            throw new IOException(exc);
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream already closed");
+        }
+    }
+}
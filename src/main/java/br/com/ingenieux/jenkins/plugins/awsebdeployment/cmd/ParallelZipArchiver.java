@@ -0,0 +1,579 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd;
+
+import br.com.ingenieux.jenkins.plugins.awsebdeployment.Constants;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Builds a Zip Archive, deflating its entries on a pool of worker threads
+ *
+ * Entries are written in the very same order they were added, no matter which worker finishes first, so the
+ * resulting archive doesn't depend on thread scheduling. Output is a plain zip file.
+ *
+ * Small files are deflated into memory by the workers. Larger ones are deflated by the writing thread, straight
+ * into the output, so memory stays bounded by the number and size of entries waiting to be written.
+ *
+ * When an {@link EntryCache} is set, entries are looked up there first, and their compressed bytes copied as-is.
+ *
+ * In reproducible mode, timestamps and permissions are normalized, so identical contents (added in the same order)
+ * always result in identical archives.
+ *
+ * Files which are already compressed (as told by their extension, or by sampling their first bytes) are stored
+ * as-is, instead of being deflated again for almost no gain.
+ */
+public class ParallelZipArchiver implements Closeable, Constants {
+    /**
+     * Files larger than that are deflated while being written, instead of buffered in memory
+     */
+    static final long INLINE_THRESHOLD = 8L * MEGABYTE;
+
+    /**
+     * Max amount of (uncompressed) bytes buffered by entries waiting to be written
+     */
+    static final long MAX_PENDING_BYTES = 64L * MEGABYTE;
+
+    /**
+     * Bytes sampled to guess whether a file is already compressed
+     */
+    static final int SAMPLE_SIZE = 1024;
+
+    /**
+     * Samples with a higher entropy (in bits per byte) are deemed incompressible
+     */
+    static final double MAX_SAMPLE_ENTROPY = 7.5;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ZipArchiveWriter writer;
+
+    private final ExecutorService executor;
+
+    private final int maxPendingEntries;
+
+    private final ArchiveStats stats = new ArchiveStats();
+
+    private final Deque<Future<PendingEntry>> pending = new ArrayDeque<>();
+
+    private final AtomicInteger cacheHits = new AtomicInteger();
+
+    private final AtomicInteger cacheMisses = new AtomicInteger();
+
+    private EntryCache entryCache;
+
+    private boolean reproducible = false;
+
+    private int level = Deflater.DEFAULT_COMPRESSION;
+
+    private Set<String> storedExtensions = Collections.emptySet();
+
+    private long pendingBytes = 0L;
+
+    private long bytesIn = 0L;
+
+    public ParallelZipArchiver(OutputStream out, int threads) {
+        this.writer = new ZipArchiveWriter(out);
+        this.maxPendingEntries = 2 * threads;
+        this.executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("awseb-zip-%d").setDaemon(true).build());
+    }
+
+    public void setEntryCache(EntryCache entryCache) {
+        this.entryCache = entryCache;
+    }
+
+    public void setReproducible(boolean reproducible) {
+        this.reproducible = reproducible;
+    }
+
+    /**
+     * Compression Level, from 0 (store everything) to 9
+     */
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    /**
+     * Extensions (lowercase, without the dot) of files to store as-is
+     */
+    public void setStoredExtensions(Set<String> storedExtensions) {
+        this.storedExtensions = storedExtensions;
+    }
+
+    public ArchiveStats getStats() {
+        return stats;
+    }
+
+    public int getEntryCount() {
+        return writer.getEntries().size();
+    }
+
+    /**
+     * Entries written so far, with their offsets
+     */
+    public List<ZipArchiveWriter.Entry> getEntries() {
+        return writer.getEntries();
+    }
+
+    public long getCentralDirectoryOffset() {
+        return writer.getCentralDirectoryOffset();
+    }
+
+    /**
+     * Uncompressed bytes written
+     */
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    /**
+     * Archive bytes written
+     */
+    public long getBytesOut() {
+        return writer.getOffset();
+    }
+
+    public int getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public int getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    /**
+     * Schedules a file to be added into the archive
+     *
+     * @param file      file to add
+     * @param entryName relative path inside the archive
+     */
+    public void add(File file, String entryName) throws IOException {
+        final PendingEntry entry = new PendingEntry(file, entryName.replace('\\', '/'), reproducible);
+        final boolean inline = entry.length > INLINE_THRESHOLD;
+
+        if (inline) {
+            byte[] sample = readSample(file);
+
+            entry.stored = isStored(entry.header.name, sample, sample.length);
+        }
+
+        if (inline && !entry.stored && null == entryCache) {
+            pending.add(Futures.immediateFuture(entry));
+        } else {
+            if (!inline) {
+                pendingBytes += entry.length;
+            }
+
+            pending.add(executor.submit(new Callable<PendingEntry>() {
+                @Override
+                public PendingEntry call() throws Exception {
+                    long startTime = ArchiveStats.cpuTime();
+
+                    if (!inline) {
+                        deflate(entry);
+                    } else if (entry.stored) {
+                        checksum(entry);
+
+                        entry.header.method = ZipEntry.STORED;
+                        entry.header.compressedSize = entry.header.size;
+                        entry.rawFile = entry.file;
+                    } else {
+                        deflateIntoCache(entry);
+                    }
+
+                    entry.cpuNanos = ArchiveStats.cpuTime() - startTime;
+
+                    return entry;
+                }
+            }));
+        }
+
+        while (pending.size() > maxPendingEntries || pendingBytes > MAX_PENDING_BYTES) {
+            writeNext();
+        }
+    }
+
+    /**
+     * Writes every pending entry, then the Central Directory
+     */
+    public void finish() throws IOException {
+        while (!pending.isEmpty()) {
+            writeNext();
+        }
+
+        writer.finish();
+    }
+
+    /**
+     * Stops the workers. The underlying stream is left open.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private void writeNext() throws IOException {
+        PendingEntry entry = waitFor(pending.removeFirst());
+
+        if (null != entry.data) {
+            pendingBytes -= entry.length;
+
+            writer.write(entry.header, entry.data, 0, entry.dataLength);
+
+            entry.data = null;
+        } else if (null != entry.rawFile && writeRaw(entry)) {
+            entry.rawFile = null;
+        } else {
+            long startTime = ArchiveStats.cpuTime();
+
+            try (InputStream in = new FileInputStream(entry.file)) {
+                writer.write(entry.header, in, level);
+            }
+
+            entry.cpuNanos += ArchiveStats.cpuTime() - startTime;
+        }
+
+        bytesIn += entry.header.size;
+
+        stats.record(entry.header, entry.cpuNanos);
+    }
+
+    /**
+     * Copies the entry data (either stored, or compressed in the cache) from a file
+     *
+     * @return false if the cached file was evicted in the meantime
+     */
+    private boolean writeRaw(PendingEntry entry) throws IOException {
+        InputStream in;
+
+        try {
+            in = new FileInputStream(entry.rawFile);
+        } catch (FileNotFoundException exc) {
+            return false;
+        }
+
+        try {
+            writer.write(entry.header, in);
+        } finally {
+            in.close();
+        }
+
+        return true;
+    }
+
+    /**
+     * Deflates an entry into memory (going through the cache, when set), unless it should be stored
+     */
+    private void deflate(PendingEntry entry) throws IOException {
+        byte[] content = Files.readAllBytes(entry.file.toPath());
+        CRC32 crc = new CRC32();
+
+        crc.update(content, 0, content.length);
+
+        entry.header.crc = crc.getValue();
+        entry.header.size = content.length;
+
+        if (isStored(entry.header.name, content, content.length)) {
+            entry.header.method = ZipEntry.STORED;
+            entry.header.compressedSize = content.length;
+            entry.data = content;
+            entry.dataLength = content.length;
+
+            return;
+        }
+
+        String cacheKey = null;
+
+        if (null != entryCache) {
+            cacheKey = EntryCache.keyFor(entry.header.name, content.length, entry.file.lastModified(),
+                    entry.header.crc, level);
+
+            File cachedFile = entryCache.lookup(cacheKey);
+
+            if (null != cachedFile) {
+                try {
+                    byte[] cachedData = Files.readAllBytes(cachedFile.toPath());
+
+                    cacheHits.incrementAndGet();
+
+                    entry.header.compressedSize = cachedData.length;
+                    entry.data = cachedData;
+                    entry.dataLength = cachedData.length;
+
+                    return;
+                } catch (IOException exc) {
+                    // Evicted in the meantime. Treat as a miss
+                }
+            }
+
+            cacheMisses.incrementAndGet();
+        }
+
+        Deflater deflater = new Deflater(level, true);
+        ExposedByteArrayOutputStream result = new ExposedByteArrayOutputStream(content.length / 2 + 64);
+
+        try {
+            deflater.setInput(content);
+            deflater.finish();
+
+            byte[] buf = new byte[16 * 1024];
+
+            while (!deflater.finished()) {
+                result.write(buf, 0, deflater.deflate(buf));
+            }
+        } finally {
+            deflater.end();
+        }
+
+        entry.header.compressedSize = result.size();
+        entry.data = result.buf();
+        entry.dataLength = result.size();
+
+        if (null != cacheKey) {
+            entryCache.store(cacheKey, entry.data, entry.dataLength);
+        }
+    }
+
+    /**
+     * Deflates a large entry into the cache, so the writer only has to copy it
+     */
+    private void deflateIntoCache(PendingEntry entry) throws IOException {
+        checksum(entry);
+
+        byte[] buf = new byte[BUFFER_SIZE];
+        String cacheKey = EntryCache.keyFor(entry.header.name, entry.header.size, entry.file.lastModified(),
+                entry.header.crc, level);
+        File cachedFile = entryCache.lookup(cacheKey);
+
+        if (null != cachedFile) {
+            cacheHits.incrementAndGet();
+        } else {
+            cacheMisses.incrementAndGet();
+
+            File tempFile = entryCache.newTempFile();
+            Deflater deflater = new Deflater(level, true);
+
+            try {
+                try (InputStream in = new FileInputStream(entry.file);
+                     OutputStream out = new DeflaterOutputStream(new FileOutputStream(tempFile), deflater,
+                             BUFFER_SIZE)) {
+                    int n;
+
+                    while (-1 != (n = in.read(buf))) {
+                        out.write(buf, 0, n);
+                    }
+                }
+
+                cachedFile = entryCache.commit(cacheKey, tempFile);
+            } finally {
+                deflater.end();
+
+                Files.deleteIfExists(tempFile.toPath());
+            }
+        }
+
+        entry.header.compressedSize = cachedFile.length();
+        entry.rawFile = cachedFile;
+    }
+
+    /**
+     * Reads a file once, to compute its CRC and size
+     */
+    private void checksum(PendingEntry entry) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buf = new byte[BUFFER_SIZE];
+        long size = 0L;
+
+        try (InputStream in = new FileInputStream(entry.file)) {
+            int n;
+
+            while (-1 != (n = in.read(buf))) {
+                crc.update(buf, 0, n);
+                size += n;
+            }
+        }
+
+        entry.header.crc = crc.getValue();
+        entry.header.size = size;
+    }
+
+    /**
+     * Should an entry be stored as-is?
+     *
+     * @param sample its first bytes
+     */
+    boolean isStored(String entryName, byte[] sample, int length) {
+        if (0 == level || storedExtensions.contains(ArchiveStats.classOf(entryName))) {
+            return true;
+        }
+
+        return length >= SAMPLE_SIZE && entropy(sample, SAMPLE_SIZE) > MAX_SAMPLE_ENTROPY;
+    }
+
+    /**
+     * Shannon Entropy of the first bytes of an array, in bits per byte
+     */
+    static double entropy(byte[] data, int length) {
+        int[] counts = new int[256];
+
+        for (int i = 0; i < length; i++) {
+            counts[data[i] & 0xFF]++;
+        }
+
+        double result = 0.0;
+
+        for (int count : counts) {
+            if (0 != count) {
+                double p = (double) count / length;
+
+                result -= p * Math.log(p);
+            }
+        }
+
+        return result / Math.log(2);
+    }
+
+    private static byte[] readSample(File file) throws IOException {
+        byte[] result = new byte[SAMPLE_SIZE];
+        int length = 0;
+
+        try (InputStream in = new FileInputStream(file)) {
+            int n;
+
+            while (length < result.length && -1 != (n = in.read(result, length, result.length - length))) {
+                length += n;
+            }
+        }
+
+        return (length == result.length) ? result : Arrays.copyOf(result, length);
+    }
+
+    private PendingEntry waitFor(Future<PendingEntry> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException("Interrupted while building archive");
+        } catch (ExecutionException exc) {
+            if (exc.getCause() instanceof IOException) {
+                throw (IOException) exc.getCause();
+            }
+
+            throw new IOException(exc.getCause());
+        }
+    }
+
+    /**
+     * Reads the unix permission bits of a file, or 0 when the filesystem doesn't support it
+     */
+    static int getMode(File file) {
+        try {
+            Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(file.toPath());
+            int mode = 0;
+
+            for (PosixFilePermission permission : PosixFilePermission.values()) {
+                mode <<= 1;
+
+                if (permissions.contains(permission)) {
+                    mode |= 1;
+                }
+            }
+
+            return mode;
+        } catch (UnsupportedOperationException | IOException exc) {
+            return 0;
+        }
+    }
+
+    static class PendingEntry {
+        final File file;
+
+        final long length;
+
+        final ZipArchiveWriter.Entry header;
+
+        /**
+         * Compressed data, when held in memory
+         */
+        byte[] data;
+
+        int dataLength;
+
+        /**
+         * Entry data, when held in a file (the cache, or the file itself when stored)
+         */
+        File rawFile;
+
+        /**
+         * Store it as-is?
+         */
+        boolean stored;
+
+        long cpuNanos;
+
+        PendingEntry(File file, String entryName, boolean normalized) {
+            this.file = file;
+            this.length = file.length();
+            this.header = normalized ? ZipArchiveWriter.Entry.normalized(entryName, getMode(file))
+                    : new ZipArchiveWriter.Entry(entryName, file.lastModified(), getMode(file));
+        }
+    }
+
+    /**
+     * Avoids copying the buffer when handing it over to the writer
+     */
+    static class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+        ExposedByteArrayOutputStream(int size) {
+            super(size);
+        }
+
+        byte[] buf() {
+            return buf;
+        }
+    }
+}
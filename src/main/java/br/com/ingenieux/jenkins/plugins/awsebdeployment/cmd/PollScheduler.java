@@ -0,0 +1,84 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules Polls: short intervals at first, backing off exponentially (with jitter) up to a maximum interval, all
+ * within a total deadline.
+ *
+ * Whenever something happens (a status/health transition, or new events), call {@link #reset()} so the next checks
+ * are close together again.
+ */
+public class PollScheduler {
+    static final long MIN_INTERVAL = TimeUnit.SECONDS.toMillis(5);
+
+    private final long maxInterval;
+
+    private final long deadline;
+
+    private long interval;
+
+    /**
+     * @param maxInterval longest interval between polls, in milliseconds
+     * @param timeout     total time allowed, in milliseconds
+     */
+    public PollScheduler(long maxInterval, long timeout) {
+        this.maxInterval = Math.max(MIN_INTERVAL, maxInterval);
+        this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        this.interval = MIN_INTERVAL;
+    }
+
+    /**
+     * Goes back to the shortest interval
+     */
+    public void reset() {
+        this.interval = MIN_INTERVAL;
+    }
+
+    /**
+     * Time to wait before the next poll (never past the deadline), in milliseconds. Doubles the interval afterwards.
+     */
+    public long nextDelay() {
+        // "Equal Jitter": half of the interval, plus a random amount up to the other half
+        long delay = interval / 2 + ThreadLocalRandom.current().nextLong(interval / 2 + 1);
+
+        interval = Math.min(maxInterval, 2 * interval);
+
+        return Math.min(delay, getRemaining());
+    }
+
+    /**
+     * Waits for the next poll
+     */
+    public void sleep() throws InterruptedException {
+        Thread.sleep(nextDelay());
+    }
+
+    /**
+     * Time left until the deadline, in milliseconds
+     */
+    public long getRemaining() {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+    }
+
+    public boolean isExpired() {
+        return 0 == getRemaining();
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.apache.commons.lang.StringUtils.isNotBlank;
+
+/**
+ * Deploys the bundle just uploaded to the additional regions as well, concurrently
+ *
+ * Each region gets a chain of its own (with its own clients), which copies the bundle server-side into the region's
+ * storage location (see {@link CopyBundle}), and then creates the version and updates the environments (named the
+ * same as in the main region) just like the main chain does.
+ */
+@SuppressFBWarnings({"EQ_DOESNT_OVERRIDE_EQUALS"})
+public class ReplicateToRegions extends DeployerCommand {
+    @Override
+    public Set<DeployerContext.Key> requires() {
+        return EnumSet.of(DeployerContext.Key.Clients, DeployerContext.Key.Parameters, DeployerContext.Key.Bundle);
+    }
+
+    @Override
+    public Set<DeployerContext.Key> provides() {
+        return EnumSet.of(DeployerContext.Key.RegionsDeployed);
+    }
+
+    /**
+     * Additional Regions (the main one and duplicates left out)
+     */
+    static List<String> regionsOf(String additionalRegions, String awsRegion) {
+        Set<String> result = new LinkedHashSet<>();
+
+        if (isNotBlank(additionalRegions)) {
+            for (String region : additionalRegions.replaceAll("\\s", "").split(",")) {
+                if (!region.isEmpty() && !region.equals(awsRegion)) {
+                    result.add(region);
+                }
+            }
+        }
+
+        return new ArrayList<>(result);
+    }
+
+    @Override
+    public boolean perform() throws Exception {
+        List<String> regions = regionsOf(getConfig().getAdditionalRegions(), getConfig().getAwsRegion());
+
+        if (regions.isEmpty()) {
+            return false;
+        }
+
+        ObjectMetadata objectMetadata = getS3().getObjectMetadata(c.config.getBucketName(), getObjectKey());
+
+        log("Deploying to additional regions %s (copying %s)", regions, getS3ObjectPath());
+
+        ExecutorService executor = Executors.newFixedThreadPool(regions.size(),
+                new ThreadFactoryBuilder().setNameFormat("awseb-region-%d").setDaemon(true).build());
+        List<Future<Boolean>> futures = new ArrayList<>();
+        List<String> failedRegions = new ArrayList<>();
+
+        try {
+            for (final String region : regions) {
+                final DeployerContext regionalContext = new DeployerContext(c.config.copyForRegion(region),
+                        getRootFileObject(), getListener());
+
+                regionalContext.setLogger(getLogger());
+                regionalContext.setLogPrefix(getLogPrefix() + "[" + region + "] ");
+                regionalContext.setClientTuning(getClientTuning());
+                regionalContext.setCredentials(getCredentials());
+                regionalContext.setProxySettings(getProxySettings());
+                regionalContext.setCleanupTasks(getCleanupTasks());
+                regionalContext.setSourceBucketName(c.config.getBucketName());
+                regionalContext.setSourceObjectKey(getObjectKey());
+                regionalContext.setSourceETag(objectMetadata.getETag());
+                regionalContext.setSourceObjectSize(objectMetadata.getContentLength());
+
+                futures.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        DeployerChain regionalChain = new DeployerChain(regionalContext);
+
+                        try {
+                            return regionalChain.perform();
+                        } finally {
+                            if (null != getReport()) {
+                                getReport().merge(region, regionalChain.getReport());
+                            }
+                        }
+                    }
+                }));
+            }
+
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    if (futures.get(i).get()) {
+                        failedRegions.add(regions.get(i));
+                    }
+                } catch (ExecutionException exc) {
+                    log("[%s] Deployment failed: %s", regions.get(i), exc.getCause());
+
+                    failedRegions.add(regions.get(i));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (!failedRegions.isEmpty()) {
+            log("Deployment to regions %s failed. Aborting.", failedRegions);
+
+            return true;
+        }
+
+        log("Deployed to additional regions %s", regions);
+
+        return false;
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd;
+
+import br.com.ingenieux.jenkins.plugins.awsebdeployment.ThrottlingRequestHandler;
+import com.amazonaws.services.elasticbeanstalk.model.EnvironmentDescription;
+import com.amazonaws.services.elasticbeanstalk.model.UpdateEnvironmentRequest;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Updates (and waits for) the environments in waves, instead of all at once
+ *
+ * Environments are taken in the order they're listed, and split into waves (e.g., "1,25%" means the first one, then
+ * a quarter of them, then the rest). Within a wave, up to maxParallel environments are updated (and waited for) at
+ * once, the next one starting as soon as any is done. A wave only starts once the one before is done.
+ */
+@SuppressFBWarnings({"EQ_DOESNT_OVERRIDE_EQUALS"})
+public class RollingUpdate extends DeployerCommand {
+    private final AtomicBoolean failing = new AtomicBoolean();
+
+    @Override
+    public Set<DeployerContext.Key> requires() {
+        return EnumSet.of(DeployerContext.Key.ApplicationVersion, DeployerContext.Key.EnvironmentIdle);
+    }
+
+    @Override
+    public Set<DeployerContext.Key> provides() {
+        return EnumSet.of(DeployerContext.Key.EnvironmentUpdated, DeployerContext.Key.EnvironmentDeployed);
+    }
+
+    /**
+     * Splits environments into waves
+     *
+     * @param spec  comma-separated wave sizes: a number of environments, or a percentage of them (e.g. "1,25%").
+     *              Whatever is left goes into a last wave.
+     * @param total number of environments
+     * @return wave sizes
+     */
+    public static List<Integer> waveSizes(String spec, int total) {
+        List<Integer> result = new ArrayList<>();
+        int remaining = total;
+
+        if (StringUtils.isNotBlank(spec)) {
+            for (String element : spec.replaceAll("\\s", "").split(",")) {
+                if (element.isEmpty()) {
+                    continue;
+                }
+
+                int size;
+
+                try {
+                    if (element.endsWith("%")) {
+                        int percentage = Integer.parseInt(element.substring(0, element.length() - 1));
+
+                        if (percentage < 1 || percentage > 100) {
+                            throw new IllegalArgumentException("Invalid wave size: '" + element + "'");
+                        }
+
+                        size = (int) Math.ceil(total * percentage / 100.0);
+                    } else {
+                        size = Integer.parseInt(element);
+
+                        if (size < 1) {
+                            throw new IllegalArgumentException("Invalid wave size: '" + element + "'");
+                        }
+                    }
+                } catch (NumberFormatException exc) {
+                    throw new IllegalArgumentException("Invalid wave size: '" + element + "'", exc);
+                }
+
+                size = Math.min(size, remaining);
+
+                if (size > 0) {
+                    result.add(size);
+                    remaining -= size;
+                }
+            }
+        }
+
+        if (remaining > 0) {
+            result.add(remaining);
+        }
+
+        return result;
+    }
+
+    @Override
+    public boolean perform() throws Exception {
+        List<EnvironmentDescription> environments = lookupEnvironments();
+
+        if (environments.isEmpty()) {
+            log("Environment not found. Aborting");
+
+            return true;
+        }
+
+        List<Integer> waves = waveSizes(getConfig().getRollingWaves(), environments.size());
+        int maxParallel = (null != getConfig().getMaxParallel() && getConfig().getMaxParallel() > 0) ?
+                getConfig().getMaxParallel() : environments.size();
+        WaitFor waitFor = getConfig().isCheckHealth() ? WaitFor.Both : WaitFor.Status;
+        List<String> failedEnvironments = new ArrayList<>();
+
+        log("Rolling out version '%s' to %d environments in %d waves of %s (up to %d at once)", getVersionLabel(),
+                environments.size(), waves.size(), waves, maxParallel);
+
+        int offset = 0;
+
+        for (int nWave = 0; nWave < waves.size(); nWave++) {
+            List<EnvironmentDescription> wave = environments.subList(offset, offset + waves.get(nWave));
+
+            offset += wave.size();
+
+            log("Wave %d/%d: %s", 1 + nWave, waves.size(), namesOf(wave));
+
+            failedEnvironments.addAll(rollOut(wave, Math.min(maxParallel, wave.size()), waitFor));
+
+            if (failing.get() && getConfig().isStopOnFailure()) {
+                log("Rolling update failed for %s. Stopping (environments left untouched: %s)", failedEnvironments,
+                        namesOf(environments.subList(offset, environments.size())));
+
+                return true;
+            }
+        }
+
+        if (!failedEnvironments.isEmpty()) {
+            log("Rolling update failed for %s", failedEnvironments);
+
+            return true;
+        }
+
+        log("Rolled out version '%s' to every environment", getVersionLabel());
+
+        return false;
+    }
+
+    /**
+     * Updates (and waits for) the environments of a wave
+     *
+     * @return names of the ones which failed
+     */
+    List<String> rollOut(List<EnvironmentDescription> wave, int parallelism, final WaitFor waitFor)
+            throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism,
+                new ThreadFactoryBuilder().setNameFormat("awseb-rollout-%d").setDaemon(true).build());
+        List<Future<EnvironmentWaiter.Outcome>> futures = new ArrayList<>();
+        List<String> result = new ArrayList<>();
+
+        try {
+            for (final EnvironmentDescription environment : wave) {
+                futures.add(executor.submit(new Callable<EnvironmentWaiter.Outcome>() {
+                    @Override
+                    public EnvironmentWaiter.Outcome call() throws Exception {
+                        try {
+                            return updateAndWait(environment, waitFor);
+                        } catch (Exception exc) {
+                            failing.set(true);
+
+                            throw exc;
+                        }
+                    }
+                }));
+            }
+
+            for (int i = 0; i < futures.size(); i++) {
+                EnvironmentWaiter.Outcome outcome;
+
+                try {
+                    outcome = futures.get(i).get();
+                } catch (ExecutionException exc) {
+                    log("Unable to update environment '%s': %s", wave.get(i).getEnvironmentName(),
+                            exc.getCause().getMessage());
+
+                    outcome = EnvironmentWaiter.Outcome.Failed;
+                }
+
+                if (null != outcome && EnvironmentWaiter.Outcome.Done != outcome) {
+                    result.add(wave.get(i).getEnvironmentName());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return result;
+    }
+
+    /**
+     * Updates an environment, and waits for it to run the new version
+     *
+     * @return outcome, or null when skipped (as the rollout is stopping)
+     */
+    EnvironmentWaiter.Outcome updateAndWait(EnvironmentDescription environment, WaitFor waitFor)
+            throws InterruptedException {
+        if (failing.get() && getConfig().isStopOnFailure()) {
+            return null;
+        }
+
+        ThrottlingRequestHandler.setLogger(getLogger());
+
+        try {
+            log("Updating environment '%s' (%s) with Version Label set to '%s'", environment.getEnvironmentName(),
+                    environment.getEnvironmentId(), getVersionLabel());
+
+            getAwseb().updateEnvironment(new UpdateEnvironmentRequest()
+                    .withEnvironmentId(environment.getEnvironmentId())
+                    .withVersionLabel(getVersionLabel())
+                    .withDescription(getVersionDescription()));
+
+            getPoller().invalidate();
+
+            EnvironmentWaiter.Outcome result = new EnvironmentWaiter(this, waitFor)
+                    .withVersionCheck(getVersionLabel())
+                    .await(Collections.singletonList(environment.getEnvironmentId()));
+
+            if (EnvironmentWaiter.Outcome.Done != result) {
+                failing.set(true);
+            }
+
+            return result;
+        } finally {
+            ThrottlingRequestHandler.setLogger(null);
+        }
+    }
+
+    /**
+     * Environments, in the order they're listed
+     */
+    List<EnvironmentDescription> lookupEnvironments() {
+        final List<String> environmentNames = Arrays.asList(
+                getConfig().getEnvironmentName().replaceAll("\\s", "").split(","));
+        List<EnvironmentDescription> result = new ArrayList<>(getPoller().describeEnvironments(getAwseb(),
+                getEnvironmentIds()));
+
+        Collections.sort(result, new Comparator<EnvironmentDescription>() {
+            @Override
+            public int compare(EnvironmentDescription o1, EnvironmentDescription o2) {
+                return Integer.compare(environmentNames.indexOf(o1.getEnvironmentName()),
+                        environmentNames.indexOf(o2.getEnvironmentName()));
+            }
+        });
+
+        return result;
+    }
+
+    private static List<String> namesOf(List<EnvironmentDescription> environments) {
+        List<String> result = new ArrayList<>();
+
+        for (EnvironmentDescription environment : environments) {
+            result.add(environment.getEnvironmentName());
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd;
+
+import hudson.util.DirScanner;
+import hudson.util.FileVisitor;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.apache.commons.lang.StringUtils.isBlank;
+
+/**
+ * Walks a directory tree (with NIO), selecting files with the same rules as {@link hudson.util.DirScanner.Glob}
+ *
+ * Unlike the former, patterns are compiled only once, files are handed over as soon as they're found, and
+ * directories which can't hold any selected file (e.g. <code>node_modules</code> when excluded with
+ * <code>**&#47;node_modules/**</code>) are skipped altogether instead of being walked into.
+ *
+ * {@link IgnoreRules} (e.g. from <code>.ebignore</code>) may be applied on top of that.
+ *
+ * {@link #asDirScanner(String, String)} wraps it for {@link hudson.FilePath#zip(java.io.OutputStream, DirScanner)},
+ * so it is used even when the archive is zipped by Jenkins (and on remote agents).
+ */
+public class WorkspaceScanner {
+    private final List<AntPattern> includes;
+
+    private final List<AntPattern> excludes;
+
+    private IgnoreRules ignoreRules;
+
+    private int prunedDirectories = 0;
+
+    private int ignoredFiles = 0;
+
+    /**
+     * @param includes comma-separated Ant patterns. Blank means everything
+     * @param excludes comma-separated Ant patterns. Ant's default excludes are applied, unless both are unset
+     */
+    public WorkspaceScanner(String includes, String excludes) {
+        this.includes = isBlank(includes) ? Arrays.asList(new AntPattern("**")) : AntPattern.parse(includes);
+        this.excludes = AntPattern.parse(excludes);
+
+        // Just like DirScanner.Glob, which scans everything when neither is set
+        if (!isBlank(includes) || null != excludes) {
+            this.excludes.addAll(AntPattern.parse(AntPattern.DEFAULT_EXCLUDES));
+        }
+    }
+
+    /**
+     * DirScanner selecting the same files as {@link DirScanner.Glob}, but walking the tree with a WorkspaceScanner
+     */
+    public static DirScanner asDirScanner(String includes, String excludes) {
+        return new Glob(includes, excludes);
+    }
+
+    public void setIgnoreRules(IgnoreRules ignoreRules) {
+        this.ignoreRules = ignoreRules;
+    }
+
+    /**
+     * Directories skipped during the last scan
+     */
+    public int getPrunedDirectories() {
+        return prunedDirectories;
+    }
+
+    /**
+     * Files (otherwise selected) left out by the ignore rules during the last scan
+     */
+    public int getIgnoredFiles() {
+        return ignoredFiles;
+    }
+
+    /**
+     * Walks a directory, calling the visitor for each selected file (with a '/'-separated relative path)
+     */
+    public void scan(File directory, final FileVisitor visitor) throws IOException {
+        final Path root = directory.toPath();
+
+        prunedDirectories = 0;
+        ignoredFiles = 0;
+
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+
+        Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+                new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                        if (dir.equals(root) || isWorthVisiting(relativePath(root, dir))) {
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        prunedDirectories++;
+
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                        String relativePath = relativePath(root, file);
+
+                        if (!attrs.isRegularFile() || !isSelected(relativePath)) {
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        if (null != ignoreRules && ignoreRules.isIgnored(relativePath, false)) {
+                            ignoredFiles++;
+                        } else {
+                            visitor.visit(file.toFile(), relativePath);
+                        }
+
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+                        if (exc instanceof FileSystemLoopException) {
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        throw exc;
+                    }
+                });
+    }
+
+    /**
+     * Is a file included, and not excluded?
+     */
+    boolean isSelected(String relativePath) {
+        return matchesAny(includes, relativePath) && !matchesAny(excludes, relativePath);
+    }
+
+    /**
+     * Could a directory hold any selected file?
+     */
+    boolean isWorthVisiting(String relativePath) {
+        if (null != ignoreRules && ignoreRules.isIgnored(relativePath, true)) {
+            return false;
+        }
+
+        for (AntPattern exclude : excludes) {
+            if (exclude.matchesContentsOf(relativePath)) {
+                return false;
+            }
+        }
+
+        List<String> segments = Arrays.asList(relativePath.split("/"));
+
+        for (AntPattern include : includes) {
+            if (include.matchesStart(segments)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean matchesAny(List<AntPattern> patterns, String path) {
+        for (AntPattern pattern : patterns) {
+            if (pattern.matches(path)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static String relativePath(Path root, Path path) {
+        List<String> segments = new ArrayList<>();
+
+        for (Path segment : root.relativize(path)) {
+            segments.add(segment.toString());
+        }
+
+        return StringUtils.join(segments, '/');
+    }
+
+    /**
+     * Drop-in replacement for {@link DirScanner.Glob} (which, when scanning everything, visits directories as well)
+     */
+    static class Glob extends DirScanner {
+        private static final long serialVersionUID = 1L;
+
+        private final String includes;
+
+        private final String excludes;
+
+        Glob(String includes, String excludes) {
+            this.includes = includes;
+            this.excludes = excludes;
+        }
+
+        @Override
+        public void scan(File dir, FileVisitor visitor) throws IOException {
+            new WorkspaceScanner(includes, excludes).scan(dir, visitor);
+        }
+    }
+}
@@ -16,118 +16,347 @@
 
 package br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd;
 
+import br.com.ingenieux.jenkins.plugins.awsebdeployment.CleanupTask;
+import br.com.ingenieux.jenkins.plugins.awsebdeployment.ThrottlingRequestHandler;
 import com.amazonaws.services.elasticbeanstalk.model.*;
-import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.apache.commons.lang.StringUtils;
 
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
-import static org.apache.commons.lang.StringUtils.isNotBlank;
-
+/**
+ * Blue/Green Deployment of a set of environments
+ *
+ * Each environment listed makes a pair with its alternate name (i.e., "name" and "name-2"): whichever of them is
+ * live gets cloned (from a configuration template) into the other one, running the new version. Once every clone is
+ * up, CNAMEs are swapped, and terminating the former live environments (along with deleting the templates) is left
+ * to the {@link br.com.ingenieux.jenkins.plugins.awsebdeployment.CleanupService} on the controller. Pairs are handled
+ * concurrently, so it takes about as long as creating a single environment, no matter how many.
+ *
+ * With a warm standby, the former live environments are kept (on the previous version) once swapped, and later
+ * deployments update those in place instead of cloning: whichever of the pair holds the CNAME prefix named after the
+ * environment listed is live.
+ */
 @SuppressFBWarnings({"EQ_DOESNT_OVERRIDE_EQUALS"})
 public class ZeroDowntime extends DeployerCommand {
-    private List<String> environmentNames;
-
-    private String environmentId;
-
-    private String templateName;
+    private final List<Pair> pairs = new ArrayList<>();
 
     @Override
-    public boolean perform() throws Exception {
-        environmentNames = generateEnvironmentNames();
+    public Set<DeployerContext.Key> requires() {
+        return EnumSet.of(DeployerContext.Key.Clients, DeployerContext.Key.ApplicationVersion);
+    }
 
-        EnvironmentDescription environmentDescription;
+    @Override
+    public Set<DeployerContext.Key> provides() {
+        return EnumSet.of(DeployerContext.Key.EnvironmentId, DeployerContext.Key.EnvironmentUpdated);
+    }
 
-        for (String environmentName : environmentNames) {
-            try {
-                List<String> envName = Lists.newArrayList(environmentName);
+    /**
+     * Alternate name of an environment: "name-2" for "name" (shortened to fit), and back
+     */
+    static String alternateNameOf(String environmentName) {
+        if (environmentName.endsWith("-2")) {
+            return environmentName.substring(0, environmentName.length() - 2);
+        }
 
-                environmentDescription = lookupEnvironmentIds(envName);
+        return StringUtils.left(environmentName, MAX_ENVIRONMENT_NAME_LENGTH - 2) + "-2";
+    }
 
-                environmentId = environmentDescription.getEnvironmentId();
+    @Override
+    public boolean perform() throws Exception {
+        List<Pair> foundPairs;
 
-            } catch (InvalidDeploymentTypeException exc) {
-                log("Zero Downtime isn't valid for Worker Environments.");
+        try {
+            foundPairs = lookupPairs();
+        } catch (InvalidDeploymentTypeException exc) {
+            log("Zero Downtime isn't valid for Worker Environments.");
 
-                return true;
-            } catch (InvalidEnvironmentsSizeException exc) {
-                log("Unable to find any suitable environment. Aborting.");
+            return true;
+        } catch (InvalidEnvironmentsSizeException exc) {
+            log("Unable to find any suitable environment. Aborting.");
 
-                return true;
-            }
+            return true;
+        }
 
-            if (environmentDescription.getVersionLabel().equals(getVersionLabel())) {
+        for (Pair pair : foundPairs) {
+            if (getVersionLabel().equals(pair.live.getVersionLabel())) {
                 log("The version to deploy and currently used are the same. Even if you overwrite, AWSEB won't allow you to update." +
                         "Skipping.");
 
                 return true;
             }
+        }
+
+        pairs.addAll(foundPairs);
+
+        Map<String, Throwable> failures = forEachPair(new PairTask() {
+            @Override
+            public void run(Pair pair) {
+                if (null != pair.standby) {
+                    pair.cloneEnvironmentId = pair.standby.getEnvironmentId();
+
+                    updateStandby(pair);
+                } else {
+                    pair.templateName = createConfigurationTemplate(pair);
+
+                    pair.cloneEnvironmentId = createEnvironment(pair);
+                }
+            }
+        });
 
-            templateName = createConfigurationTemplate(environmentId);
+        List<String> cloneEnvironmentIds = new ArrayList<>();
 
-            String
-                    clonedEnvironmentId =
-                    createEnvironment(getVersionLabel(), getVersionDescription(), templateName, environmentNames);
+        for (Pair pair : pairs) {
+            if (null != pair.cloneEnvironmentId) {
+                cloneEnvironmentIds.add(pair.cloneEnvironmentId);
+            }
+        }
 
-            setEnvironmentId(clonedEnvironmentId);
+        setEnvironmentId(StringUtils.join(cloneEnvironmentIds, ","));
 
-            log("From now on, we'll use '%s' as the environmentId, but once finished, we'll swap and replace with '%s'", getEnvironmentId(), environmentId);
+        if (!failures.isEmpty()) {
+            log("Unable to clone %s. Aborting.", failures.keySet());
 
+            return true;
         }
+
+        log("From now on, we'll use %s as the environmentIds, but once finished, we'll swap %s them",
+                cloneEnvironmentIds, c.config.isWarmStandby() ? "and keep" : "and replace");
+
         return false;
     }
 
-    private List<String> generateEnvironmentNames() {
-        List<String> newEnvironmentNames = Lists.newArrayList(getEnvironmentNames());
+    /**
+     * Pairs each environment listed with its alternate (or standby)
+     */
+    private List<Pair> lookupPairs()
+            throws InvalidEnvironmentsSizeException, InvalidDeploymentTypeException, AmbiguousPairException {
+        Map<String, EnvironmentDescription> environments = new HashMap<>();
+        List<Pair> result = new ArrayList<>();
 
-        for (final ListIterator<String> iterator = newEnvironmentNames.listIterator(); iterator.hasNext(); ) {
-            final String environmentName = iterator.next();
+        for (EnvironmentDescription environment : getAwseb().describeEnvironments(new DescribeEnvironmentsRequest()
+                .withApplicationName(c.config.getApplicationName())
+                .withIncludeDeleted(false)).getEnvironments()) {
+            environments.put(environment.getEnvironmentName(), environment);
+        }
+
+        for (String environmentName : getEnvironmentNames()) {
+            String alternateName = alternateNameOf(environmentName);
+            EnvironmentDescription live = environments.get(environmentName);
+            EnvironmentDescription alternate = environments.get(alternateName);
+            Pair pair;
+
+            if (null != live && null != alternate) {
+                if (!c.config.isWarmStandby()) {
+                    log("Both '%s' and '%s' exist, so there's nowhere to clone into.", environmentName, alternateName);
 
-            boolean tooLong = environmentName.length() > (MAX_ENVIRONMENT_NAME_LENGTH - 2);
+                    throw new InvalidEnvironmentsSizeException(c.config.getApplicationName(), environmentName, 2);
+                }
+
+                boolean liveMatches = environmentName.equals(cnamePrefixOf(live));
+                boolean alternateMatches = environmentName.equals(cnamePrefixOf(alternate));
+
+                if (liveMatches == alternateMatches) {
+                    throw new AmbiguousPairException(environmentName, live, alternate);
+                }
 
-            if (tooLong) {
-                String shortenedEnvironmentName = environmentName.substring(0, environmentName.length() - 2);
-                iterator.set(shortenedEnvironmentName + "-2");
+                pair = alternateMatches ? new Pair(alternate, live) : new Pair(live, alternate);
+            } else if (null != live) {
+                pair = new Pair(live, alternateName);
+            } else if (null != alternate) {
+                pair = new Pair(alternate, environmentName);
+            } else {
+                throw new InvalidEnvironmentsSizeException(c.config.getApplicationName(), environmentName, 0);
             }
+
+            // Later on, the live environment is told from its standby by its CNAME alone
+            if (c.config.isWarmStandby() && null == pair.standby
+                    && !environmentName.equals(cnamePrefixOf(pair.live))) {
+                throw new AmbiguousPairException(environmentName, pair.live);
+            }
+
+            if (WORKER_ENVIRONMENT_TYPE.equals(pair.live.getTier().getName())) {
+                throw new InvalidDeploymentTypeException();
+            }
+
+            result.add(pair);
         }
 
-        return newEnvironmentNames;
+        return result;
     }
 
-    private String createEnvironment(String versionLabel, String versionDescription, String templateName,
-                                     List<String> environmentNames) throws InvalidDeploymentTypeException {
-        log("Creating environment based on application %s @ %s from version %s and configuration template %s",
-                c.config.getApplicationName(), StringUtils.join(environmentNames, "/"), versionLabel, templateName);
+    @Override
+    public boolean release() throws Exception {
+        if (pairs.isEmpty()) {
+            return false;
+        }
+
+        final boolean successfulP = isSuccessfulP();
+
+        if (!successfulP) {
+            log("Rolling back on candidate environmentIds '%s'", getEnvironmentId());
+        }
 
-        String newEnvironmentName = environmentNames.get(0);
+        Map<String, Throwable> failures = forEachPair(new PairTask() {
+            @Override
+            public void run(Pair pair) throws Exception {
+                if (successfulP && null != pair.cloneEnvironmentId) {
+                    swapEnvironmentCnames(pair.live.getEnvironmentId(), pair.cloneEnvironmentId);
+
+                    handOverCleanup(pair);
+
+                    return;
+                }
 
-        for (String environmentName : environmentNames) {
-            try {
-                lookupEnvironmentIds(Collections.singletonList(environmentName));
-            } catch (InvalidEnvironmentsSizeException e) {
-                newEnvironmentName = environmentName;
+                if (null != pair.standby) {
+                    log("Leaving standby environment %s out of service", pair.cloneEnvironmentName);
+                } else if (null != pair.cloneEnvironmentId) {
+                    terminateEnvironment(pair.cloneEnvironmentId);
+                }
 
-                break;
+                if (null != pair.templateName) {
+                    deleteTemplateName(pair.templateName);
+                }
             }
+        });
+
+        if (!failures.isEmpty()) {
+            // e.g. a CNAME swap which didn't go through: the build must not look successful
+            throw new PairsFailedException("Unable to finish " + failures.keySet(), failures.values());
         }
 
+        return false;
+    }
+
+    /**
+     * Once traffic has moved, terminating the former live environment and deleting the template is left to the
+     * controller, so the build doesn't have to wait for it
+     */
+    private void handOverCleanup(Pair pair) {
+        CleanupTask cleanupTask = new CleanupTask(c.config.getCredentialId(), c.config.getAwsRegion(),
+                c.config.getApplicationName());
+
+        if (c.config.isWarmStandby()) {
+            log("Keeping environment %s as the standby for %s", pair.live.getEnvironmentName(),
+                    pair.cloneEnvironmentName);
+        } else {
+            cleanupTask.setEnvironmentId(pair.live.getEnvironmentId());
+            cleanupTask.setEnvironmentName(pair.live.getEnvironmentName());
+        }
+
+        cleanupTask.setTemplateName(pair.templateName);
+
+        if (!cleanupTask.isDone()) {
+            log("Leaving to the controller: %s", cleanupTask.getDescription());
+
+            getCleanupTasks().add(cleanupTask);
+        }
+    }
+
+    /**
+     * Runs a task for every pair at once
+     *
+     * @return why it failed, for each pair it failed for (after logging it)
+     */
+    private Map<String, Throwable> forEachPair(final PairTask task) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(pairs.size(),
+                new ThreadFactoryBuilder().setNameFormat("awseb-bluegreen-%d").setDaemon(true).build());
+        List<Future<Void>> futures = new ArrayList<>();
+        Map<String, Throwable> result = new LinkedHashMap<>();
+
+        try {
+            for (final Pair pair : pairs) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        ThrottlingRequestHandler.setLogger(getLogger());
+
+                        try {
+                            task.run(pair);
+                        } finally {
+                            ThrottlingRequestHandler.setLogger(null);
+                        }
+
+                        return null;
+                    }
+                }));
+            }
+
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException exc) {
+                    log("Failure on environment '%s': %s", pairs.get(i).live.getEnvironmentName(), exc.getCause());
+
+                    result.put(pairs.get(i).live.getEnvironmentName(), exc.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return result;
+    }
+
+    /**
+     * Prefix of the CNAME of an environment (i.e., "myapp" for "myapp.us-east-1.elasticbeanstalk.com")
+     */
+    static String cnamePrefixOf(EnvironmentDescription environment) {
+        return StringUtils.substringBefore(StringUtils.defaultString(environment.getCNAME()), ".");
+    }
+
+    private void updateStandby(Pair pair) {
+        if (getVersionLabel().equals(pair.standby.getVersionLabel())) {
+            log("Standby environment %s is on version %s already", pair.cloneEnvironmentName, getVersionLabel());
+
+            return;
+        }
+
+        log("Updating standby environment %s to version %s", pair.cloneEnvironmentName, getVersionLabel());
+
+        getAwseb().updateEnvironment(new UpdateEnvironmentRequest()
+                .withEnvironmentId(pair.standby.getEnvironmentId())
+                .withVersionLabel(getVersionLabel()));
+
+        getPoller().invalidate();
+    }
+
+    private String createEnvironment(Pair pair) {
+        log("Creating environment %s based on application %s @ %s from version %s and configuration template %s",
+                pair.cloneEnvironmentName, c.config.getApplicationName(), pair.live.getEnvironmentName(),
+                getVersionLabel(), pair.templateName);
+
         CreateEnvironmentRequest request = new CreateEnvironmentRequest()
-                .withEnvironmentName(newEnvironmentName).withVersionLabel(versionLabel)
-                .withDescription(versionDescription).withApplicationName(c.config.getApplicationName())
-                .withTemplateName(templateName);
+                .withEnvironmentName(pair.cloneEnvironmentName).withVersionLabel(getVersionLabel())
+                .withDescription(getVersionDescription()).withApplicationName(c.config.getApplicationName())
+                .withTemplateName(pair.templateName);
 
-        return getAwseb().createEnvironment(request).getEnvironmentId();
+        String environmentId = getAwseb().createEnvironment(request).getEnvironmentId();
+
+        getPoller().invalidate();
+
+        return environmentId;
     }
 
     private void terminateEnvironment(String environmentId) {
         final DescribeEnvironmentsResult result = getAwseb().describeEnvironments(new DescribeEnvironmentsRequest().withEnvironmentIds(environmentId).withIncludeDeleted(false));
 
         if (result.getEnvironments().isEmpty()) {
-            log("Environment environmentId '%s' was already finished.");
+            log("Environment environmentId '%s' was already finished.", environmentId);
             return;
         }
 
@@ -138,6 +367,8 @@ public class ZeroDowntime extends DeployerCommand {
                 new TerminateEnvironmentRequest().withEnvironmentId(environmentId);
 
         getAwseb().terminateEnvironment(request);
+
+        getPoller().invalidate();
     }
 
     private void swapEnvironmentCnames(String environmentId, String clonedEnvironmentId)
@@ -149,61 +380,99 @@ public class ZeroDowntime extends DeployerCommand {
 
         getAwseb().swapEnvironmentCNAMEs(request);
 
+        getPoller().invalidate();
+
         Thread.sleep(TimeUnit.SECONDS.toMillis(SLEEP_TIME / 6)); //So the CNAMEs will swap
     }
 
-    private String createConfigurationTemplate(String environmentId) {
-        log("Creating configuration template from application %s with label %s", c.config.getApplicationName(),
+    private String createConfigurationTemplate(Pair pair) {
+        log("Creating configuration template from environment %s with label %s", pair.live.getEnvironmentName(),
                 getVersionLabel());
 
+        // One for each pair, as template names are unique within the application
         CreateConfigurationTemplateRequest request = new CreateConfigurationTemplateRequest()
                 .withApplicationName(c.config.getApplicationName())
-                .withEnvironmentId(environmentId)
-                .withTemplateName("tmp-" + getVersionLabel());
+                .withEnvironmentId(pair.live.getEnvironmentId())
+                .withTemplateName(StringUtils.left("tmp-" + getVersionLabel() + "-" + pair.live.getEnvironmentName(),
+                        100));
 
         return getAwseb().createConfigurationTemplate(request).getTemplateName();
     }
 
-    private EnvironmentDescription lookupEnvironmentIds(List<String> environmentNames) throws InvalidEnvironmentsSizeException, InvalidDeploymentTypeException {
-        DescribeEnvironmentsResult environments = getAwseb()
-                .describeEnvironments(new DescribeEnvironmentsRequest()
-                        .withApplicationName(c.config.getApplicationName())
-                        .withIncludeDeleted(false));
+    private void deleteTemplateName(String templateName) {
+        log("Excluding template name '%s'", templateName);
 
-        for (EnvironmentDescription env : environments.getEnvironments()) {
-            if (environmentNames.contains(env.getEnvironmentName())) {
-                if (WORKER_ENVIRONMENT_TYPE.equals(env.getTier().getName())) {
-                    throw new InvalidDeploymentTypeException();
-                }
+        getAwseb().deleteConfigurationTemplate(new DeleteConfigurationTemplateRequest(c.config.getApplicationName(), templateName));
+    }
 
-                return env;
-            }
+    /**
+     * Represents a Blue/Green Pair: the live environment, and the one it's cloned into (or its standby)
+     */
+    static class Pair {
+        final EnvironmentDescription live;
+
+        final String cloneEnvironmentName;
+
+        /**
+         * Standby environment, updated in place instead of cloning (if any)
+         */
+        final EnvironmentDescription standby;
+
+        volatile String templateName;
+
+        volatile String cloneEnvironmentId;
+
+        Pair(EnvironmentDescription live, String cloneEnvironmentName) {
+            this.live = live;
+            this.cloneEnvironmentName = cloneEnvironmentName;
+            this.standby = null;
         }
 
-        throw new InvalidEnvironmentsSizeException(c.config.getApplicationName(), environmentNames.get(0), environments.getEnvironments().size());
+        Pair(EnvironmentDescription live, EnvironmentDescription standby) {
+            this.live = live;
+            this.cloneEnvironmentName = standby.getEnvironmentName();
+            this.standby = standby;
+        }
     }
 
-    @Override
-    public boolean release() throws Exception {
-        if (isSuccessfulP()) {
-            swapEnvironmentCnames(environmentId, getEnvironmentId());
+    interface PairTask {
+        void run(Pair pair) throws Exception;
+    }
 
-            deleteTemplateName(templateName);
+    /**
+     * Failures on some of the pairs: the first one is the cause, and the others are suppressed
+     */
+    public static class PairsFailedException extends Exception {
+        private static final long serialVersionUID = 1L;
 
-            terminateEnvironment(environmentId);
-        } else if (isNotBlank(getEnvironmentId())) {
-            log("Rolling back on candidate environmentId '%s'", getEnvironmentId());
+        PairsFailedException(String message, Collection<Throwable> failures) {
+            super(message, failures.iterator().next());
 
-            terminateEnvironment(getEnvironmentId());
+            for (Throwable failure : failures) {
+                if (null != failure && failure != getCause()) {
+                    addSuppressed(failure);
+                }
+            }
         }
-
-        return false;
     }
 
-    private void deleteTemplateName(String templateName) {
-        log("Excluding template name '%s'", templateName);
+    /**
+     * Warm Standby: the live environment of a pair can't be told (apart from its standby) by its CNAME
+     */
+    public static class AmbiguousPairException extends Exception {
+        private static final long serialVersionUID = 1L;
 
-        getAwseb().deleteConfigurationTemplate(new DeleteConfigurationTemplateRequest(c.config.getApplicationName(), templateName));
+        AmbiguousPairException(String environmentName, EnvironmentDescription environment,
+                               EnvironmentDescription alternate) {
+            super(String.format("Expected exactly one of '%s' (CNAME '%s') and '%s' (CNAME '%s') to answer on CNAME "
+                            + "prefix '%s'", environment.getEnvironmentName(), environment.getCNAME(),
+                    alternate.getEnvironmentName(), alternate.getCNAME(), environmentName));
+        }
+
+        AmbiguousPairException(String environmentName, EnvironmentDescription environment) {
+            super(String.format("Expected '%s' (CNAME '%s') to answer on CNAME prefix '%s', so it can be told apart "
+                    + "from its standby", environment.getEnvironmentName(), environment.getCNAME(), environmentName));
+        }
     }
 
     public static class InvalidDeploymentTypeException extends Exception {
@@ -0,0 +1,441 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Minimal Zip Writer
+ *
+ * Unlike {@link java.util.zip.ZipOutputStream}, it accepts entries whose data was already compressed elsewhere
+ * (e.g. on another thread), writing them as-is. It keeps track of every entry written, including its offset.
+ *
+ * Archives with more than 65535 entries get Zip64 end records (just like {@link java.util.zip.ZipOutputStream}
+ * does). Entries and archives over 4 GiB aren't supported, as Elastic Beanstalk source bundles are capped way below
+ * that anyway, and are refused as soon as they're written.
+ */
+public class ZipArchiveWriter {
+    static final int LOCAL_FILE_HEADER = 0x04034b50;
+
+    static final int DATA_DESCRIPTOR = 0x08074b50;
+
+    static final int CENTRAL_DIRECTORY_HEADER = 0x02014b50;
+
+    static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+
+    static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+
+    static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR = 0x07064b50;
+
+    static final int FLAG_DATA_DESCRIPTOR = 1 << 3;
+
+    static final int FLAG_UTF8 = 1 << 11;
+
+    private static final int VERSION_NEEDED = 20;
+
+    private static final int VERSION_MADE_BY_UNIX = (3 << 8) | VERSION_NEEDED;
+
+    private static final int VERSION_NEEDED_ZIP64 = 45;
+
+    private static final int S_IFREG = 0100000;
+
+    private static final int MAX_ENTRIES = 0xFFFF;
+
+    private static final long MAX_SIZE = 0xFFFFFFFFL;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Earliest MS-DOS timestamp: 1980-01-01 00:00:00
+     */
+    static final long MIN_DOS_TIME = (1 << 21) | (1 << 16);
+
+    private final OutputStream out;
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    private long offset = 0L;
+
+    private long centralDirectoryOffset = -1L;
+
+    private boolean finished = false;
+
+    public ZipArchiveWriter(OutputStream out) {
+        this.out = new BufferedOutputStream(out, BUFFER_SIZE);
+    }
+
+    /**
+     * Bytes written so far
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Where the Central Directory starts, once finished
+     */
+    public long getCentralDirectoryOffset() {
+        return centralDirectoryOffset;
+    }
+
+    /**
+     * Writes an entry whose method, crc and sizes are already set, with its (already compressed) data
+     */
+    public void write(Entry entry, byte[] data, int off, int len) throws IOException {
+        entry.offset = offset;
+        entry.flags = FLAG_UTF8;
+
+        checkLimits(entry);
+
+        writeLocalFileHeader(entry);
+        writeBytes(data, off, len);
+
+        entries.add(entry);
+    }
+
+    /**
+     * Writes an entry whose method, crc and sizes are already set, copying its (already compressed) data from a
+     * stream
+     */
+    public void write(Entry entry, InputStream compressedData) throws IOException {
+        entry.offset = offset;
+        entry.flags = FLAG_UTF8;
+
+        checkLimits(entry);
+
+        writeLocalFileHeader(entry);
+
+        byte[] buf = new byte[BUFFER_SIZE];
+        long remaining = entry.compressedSize;
+
+        while (remaining > 0) {
+            int n = compressedData.read(buf, 0, (int) Math.min(buf.length, remaining));
+
+            if (-1 == n) {
+                throw new IOException("Premature end of compressed data for entry " + entry.name);
+            }
+
+            writeBytes(buf, 0, n);
+
+            remaining -= n;
+        }
+
+        entries.add(entry);
+    }
+
+    /**
+     * Deflates an entry straight from a stream, trailing it with a data descriptor as sizes aren't known upfront
+     */
+    public void write(Entry entry, InputStream in, int level) throws IOException {
+        entry.offset = offset;
+        entry.flags = FLAG_UTF8 | FLAG_DATA_DESCRIPTOR;
+        entry.method = ZipEntry.DEFLATED;
+        entry.crc = entry.compressedSize = entry.size = 0L;
+
+        writeLocalFileHeader(entry);
+
+        long dataOffset = offset;
+        CRC32 crc = new CRC32();
+        Deflater deflater = new Deflater(level, true);
+
+        try {
+            byte[] buf = new byte[BUFFER_SIZE];
+            byte[] deflated = new byte[BUFFER_SIZE];
+            long size = 0L;
+            int n;
+
+            while (-1 != (n = in.read(buf))) {
+                crc.update(buf, 0, n);
+                size += n;
+
+                deflater.setInput(buf, 0, n);
+
+                while (!deflater.needsInput()) {
+                    writeBytes(deflated, 0, deflater.deflate(deflated));
+                }
+            }
+
+            deflater.finish();
+
+            while (!deflater.finished()) {
+                writeBytes(deflated, 0, deflater.deflate(deflated));
+            }
+
+            entry.crc = crc.getValue();
+            entry.size = size;
+            entry.compressedSize = offset - dataOffset;
+        } finally {
+            deflater.end();
+        }
+
+        checkLimits(entry);
+
+        ByteBuffer b = buffer(16);
+
+        b.putInt(DATA_DESCRIPTOR)
+                .putInt((int) entry.crc)
+                .putInt((int) entry.compressedSize)
+                .putInt((int) entry.size);
+
+        writeBytes(b.array(), 0, b.position());
+
+        entries.add(entry);
+    }
+
+    /**
+     * Writes the Central Directory and flushes. The underlying stream is left open.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+
+        centralDirectoryOffset = offset;
+
+        for (Entry entry : entries) {
+            writeCentralDirectoryHeader(entry);
+        }
+
+        long centralDirectorySize = offset - centralDirectoryOffset;
+
+        if (offset > MAX_SIZE) {
+            throw new IOException("Archive too large: " + offset + " bytes");
+        }
+
+        if (entries.size() >= MAX_ENTRIES) {
+            writeZip64EndOfCentralDirectory(centralDirectorySize);
+        }
+
+        int entryCount = Math.min(entries.size(), MAX_ENTRIES);
+        ByteBuffer b = buffer(22);
+
+        b.putInt(END_OF_CENTRAL_DIRECTORY)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) entryCount)
+                .putShort((short) entryCount)
+                .putInt((int) centralDirectorySize)
+                .putInt((int) centralDirectoryOffset)
+                .putShort((short) 0);
+
+        writeBytes(b.array(), 0, b.position());
+
+        out.flush();
+
+        finished = true;
+    }
+
+    /**
+     * Writes the Zip64 End of Central Directory Record and its Locator, for when the entry count doesn't fit
+     */
+    private void writeZip64EndOfCentralDirectory(long centralDirectorySize) throws IOException {
+        long recordOffset = offset;
+        ByteBuffer b = buffer(56 + 20);
+
+        b.putInt(ZIP64_END_OF_CENTRAL_DIRECTORY)
+                .putLong(44L)
+                .putShort((short) ((3 << 8) | VERSION_NEEDED_ZIP64))
+                .putShort((short) VERSION_NEEDED_ZIP64)
+                .putInt(0)
+                .putInt(0)
+                .putLong(entries.size())
+                .putLong(entries.size())
+                .putLong(centralDirectorySize)
+                .putLong(centralDirectoryOffset);
+
+        b.putInt(ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR)
+                .putInt(0)
+                .putLong(recordOffset)
+                .putInt(1);
+
+        writeBytes(b.array(), 0, b.position());
+    }
+
+    private void writeLocalFileHeader(Entry entry) throws IOException {
+        byte[] name = entry.getNameBytes();
+        ByteBuffer b = buffer(30 + name.length);
+
+        b.putInt(LOCAL_FILE_HEADER)
+                .putShort((short) VERSION_NEEDED)
+                .putShort((short) entry.flags)
+                .putShort((short) entry.method)
+                .putInt((int) entry.dosTime)
+                .putInt((int) entry.crc)
+                .putInt((int) entry.compressedSize)
+                .putInt((int) entry.size)
+                .putShort((short) name.length)
+                .putShort((short) 0)
+                .put(name);
+
+        writeBytes(b.array(), 0, b.position());
+    }
+
+    private void writeCentralDirectoryHeader(Entry entry) throws IOException {
+        byte[] name = entry.getNameBytes();
+        ByteBuffer b = buffer(46 + name.length);
+        int externalAttributes = (0 != entry.mode) ? ((S_IFREG | entry.mode) << 16) : 0;
+
+        b.putInt(CENTRAL_DIRECTORY_HEADER)
+                .putShort((short) VERSION_MADE_BY_UNIX)
+                .putShort((short) VERSION_NEEDED)
+                .putShort((short) entry.flags)
+                .putShort((short) entry.method)
+                .putInt((int) entry.dosTime)
+                .putInt((int) entry.crc)
+                .putInt((int) entry.compressedSize)
+                .putInt((int) entry.size)
+                .putShort((short) name.length)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putInt(externalAttributes)
+                .putInt((int) entry.offset)
+                .put(name);
+
+        writeBytes(b.array(), 0, b.position());
+    }
+
+    private void checkLimits(Entry entry) throws IOException {
+        if (entry.size > MAX_SIZE || entry.compressedSize > MAX_SIZE || entry.offset > MAX_SIZE) {
+            throw new IOException("Entry too large for a zip archive: " + entry.name);
+        }
+    }
+
+    private void writeBytes(byte[] data, int off, int len) throws IOException {
+        out.write(data, off, len);
+
+        offset += len;
+    }
+
+    private static ByteBuffer buffer(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Converts a java timestamp into a MS-DOS one, in local time, just like {@link java.util.zip.ZipEntry} does
+     */
+    static long toDosTime(long time) {
+        Calendar c = Calendar.getInstance();
+
+        c.setTimeInMillis(time);
+
+        int year = c.get(Calendar.YEAR);
+
+        if (year < 1980) {
+            return MIN_DOS_TIME;
+        }
+
+        return ((year - 1980) << 25)
+                | ((c.get(Calendar.MONTH) + 1) << 21)
+                | (c.get(Calendar.DAY_OF_MONTH) << 16)
+                | (c.get(Calendar.HOUR_OF_DAY) << 11)
+                | (c.get(Calendar.MINUTE) << 5)
+                | (c.get(Calendar.SECOND) >> 1);
+    }
+
+    /**
+     * Represents an Archive Entry
+     */
+    public static class Entry {
+        final String name;
+
+        final long dosTime;
+
+        final int mode;
+
+        int method = ZipEntry.DEFLATED;
+
+        int flags;
+
+        long crc;
+
+        long compressedSize;
+
+        long size;
+
+        long offset;
+
+        /**
+         * @param name         entry name, using '/' as separator
+         * @param lastModified java timestamp
+         * @param mode         unix permission bits (e.g. 0644), or 0 if unknown
+         */
+        public Entry(String name, long lastModified, int mode) {
+            this(toDosTime(lastModified), name, mode);
+        }
+
+        private Entry(long dosTime, String name, int mode) {
+            this.name = name;
+            this.dosTime = dosTime;
+            this.mode = mode;
+        }
+
+        /**
+         * Creates an Entry which doesn't depend on filesystem metadata: its timestamp is always 1980-01-01 00:00:00,
+         * and its mode either 0755 (when executable by its owner) or 0644
+         */
+        public static Entry normalized(String name, int mode) {
+            return new Entry(MIN_DOS_TIME, name, (0 != (mode & 0100)) ? 0755 : 0644);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getMethod() {
+            return method;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        byte[] getNameBytes() {
+            return name.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RateLimiterTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void servesABurstRightAway() {
+        RateLimiter rateLimiter = new RateLimiter(10, 3);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, rateLimiter.reserve());
+        }
+
+        assertBetween(SECOND / 20, SECOND / 10, rateLimiter.reserve());
+    }
+
+    @Test
+    public void reservesTokensInOrder() {
+        RateLimiter rateLimiter = new RateLimiter(10, 1);
+
+        assertEquals(0, rateLimiter.reserve());
+
+        long previous = 0;
+
+        for (int i = 1; i <= 5; i++) {
+            long wait = rateLimiter.reserve();
+
+            assertTrue(wait > previous);
+            assertBetween(i * SECOND / 10 - SECOND / 20, i * SECOND / 10, wait);
+
+            previous = wait;
+        }
+    }
+
+    @Test
+    public void halvesTheRateWhenThrottledAtMostOnceASecond() {
+        RateLimiter rateLimiter = new RateLimiter(10, 1);
+
+        rateLimiter.onThrottled();
+
+        assertEquals(5.0, rateLimiter.getRate(), 0.001);
+
+        rateLimiter.onThrottled();
+
+        assertEquals(5.0, rateLimiter.getRate(), 0.001);
+    }
+
+    @Test
+    public void growsBackToTheBudget() {
+        RateLimiter rateLimiter = new RateLimiter(10, 1);
+
+        rateLimiter.onThrottled();
+        rateLimiter.onSuccess();
+
+        assertEquals(5.5, rateLimiter.getRate(), 0.001);
+
+        for (int i = 0; i < 100; i++) {
+            rateLimiter.onSuccess();
+        }
+
+        assertEquals(10.0, rateLimiter.getRate(), 0.001);
+    }
+
+    @Test
+    public void isSharedWithinAScope() {
+        RateLimiter rateLimiter = RateLimiter.of("RateLimiterTest/a", 10, 1);
+
+        assertSame(rateLimiter, RateLimiter.of("RateLimiterTest/a", 20, 2));
+        assertNotSame(rateLimiter, RateLimiter.of("RateLimiterTest/b", 10, 1));
+        assertEquals(10.0, RateLimiter.of("RateLimiterTest/a", 20, 2).getRate(), 0.001);
+    }
+
+    private static void assertBetween(long min, long max, long value) {
+        assertTrue(value + " not in [" + min + ", " + max + "]", min <= value && value <= max);
+    }
+}
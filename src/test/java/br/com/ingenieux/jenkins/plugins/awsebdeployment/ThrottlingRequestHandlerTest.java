@@ -0,0 +1,80 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryPolicy;
+import com.amazonaws.services.s3.model.ListBucketsRequest;
+import org.junit.Test;
+
+import java.net.SocketException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ThrottlingRequestHandlerTest {
+    private final AmazonWebServiceRequest request = new ListBucketsRequest();
+
+    @Test
+    public void retriesTakeATokenToo() {
+        RateLimiter rateLimiter = new RateLimiter(1, 1);
+        RetryPolicy retryPolicy = new ThrottlingRequestHandler(rateLimiter).newRetryPolicy();
+        AmazonClientException exception = new AmazonClientException("Connection reset");
+
+        // The first retry takes the only token, so the next one waits for another (a second later)
+        assertTrue(retryPolicy.getBackoffStrategy().delayBeforeNextRetry(request, exception, 0) < 900);
+        assertTrue(retryPolicy.getBackoffStrategy().delayBeforeNextRetry(request, exception, 1) >= 900);
+    }
+
+    @Test
+    public void throttledRetriesTakeATokenToo() {
+        RateLimiter rateLimiter = new RateLimiter(1, 1);
+        RetryPolicy retryPolicy = new ThrottlingRequestHandler(rateLimiter).newRetryPolicy();
+        AmazonServiceException exception = new AmazonServiceException("Rate exceeded");
+
+        exception.setErrorCode("Throttling");
+
+        assertTrue(retryPolicy.getRetryCondition().shouldRetry(request, exception, 0));
+        assertEquals(0.5, rateLimiter.getRate(), 0.001);
+
+        retryPolicy.getBackoffStrategy().delayBeforeNextRetry(request, exception, 0);
+
+        // Next token, at half the rate
+        assertTrue(retryPolicy.getBackoffStrategy().delayBeforeNextRetry(request, exception, 0) >= 1800);
+    }
+
+    @Test
+    public void retriesThrottledCallsMoreThanOthers() {
+        RetryPolicy retryPolicy = new ThrottlingRequestHandler(new RateLimiter(1, 1)).newRetryPolicy();
+        AmazonClientException exception = new AmazonClientException("Connection reset", new SocketException());
+        AmazonServiceException throttled = new AmazonServiceException("Rate exceeded");
+
+        throttled.setErrorCode("Throttling");
+
+        assertEquals(ThrottlingRequestHandler.MAX_THROTTLED_RETRIES, retryPolicy.getMaxErrorRetry());
+        assertTrue(retryPolicy.getRetryCondition().shouldRetry(request, exception, 0));
+        assertFalse(retryPolicy.getRetryCondition().shouldRetry(request, exception,
+                PredefinedRetryPolicies.DEFAULT_MAX_ERROR_RETRY));
+        assertTrue(retryPolicy.getRetryCondition().shouldRetry(request, throttled,
+                PredefinedRetryPolicies.DEFAULT_MAX_ERROR_RETRY));
+    }
+}
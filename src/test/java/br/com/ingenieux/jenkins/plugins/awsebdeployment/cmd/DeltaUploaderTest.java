@@ -0,0 +1,278 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DeltaUploaderTest {
+    private static final int MiB = 1024 * 1024;
+
+    private static final String BUCKET = "bucket";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private InMemoryS3 s3;
+
+    private DeltaUploader deltaUploader;
+
+    @Before
+    public void setUp() {
+        s3 = new InMemoryS3();
+        deltaUploader = new DeltaUploader(s3, 5 * MiB, 4);
+    }
+
+    @Test
+    public void copiesUnchangedRangesAndRebuildsTheArchive() throws IOException {
+        Random random = new Random(42L);
+        List<byte[]> contents = randomContents(random, 6, 4 * MiB, 4 * MiB);
+        BundleManifest previous = uploadWhole("v1.zip", contents);
+
+        contents.set(2, randomBytes(random, 4 * MiB));
+
+        File archive = tmp.newFile("v2.zip");
+        BundleManifest current = buildArchive(archive, contents);
+        List<DeltaUploader.Part> parts = deltaUploader.plan(previous, current);
+
+        assertNotNull(parts);
+        assertValidPlan(parts, current.getSize());
+
+        long copiedBytes = DeltaUploader.getCopiedBytes(parts);
+
+        assertTrue("should reuse most of the previous bundle: " + copiedBytes, copiedBytes > 16 * MiB);
+
+        long uploadedBefore = s3.getBytesUploaded();
+
+        deltaUploader.upload(archive, BUCKET, "v2.zip", new ObjectMetadata(), previous, parts);
+
+        assertArrayEquals(Files.readAllBytes(archive.toPath()), s3.getBytes(BUCKET, "v2.zip"));
+        assertEquals(copiedBytes, s3.getBytesCopied());
+        assertEquals(current.getSize() - copiedBytes, s3.getBytesUploaded() - uploadedBefore);
+        assertEquals(0, s3.getPendingUploads());
+    }
+
+    @Test
+    public void everyPartButTheLastHoldsAtLeastFiveMiB() throws IOException {
+        for (long seed = 0; seed < 8; seed++) {
+            Random random = new Random(seed);
+            List<byte[]> contents = randomContents(random, 30, 16 * 1024, 1536 * 1024);
+            File previousArchive = tmp.newFile("previous-" + seed + ".zip");
+            BundleManifest previous = buildArchive(previousArchive, contents);
+
+            for (int i = 0; i < contents.size(); i++) {
+                if (random.nextInt(4) == 0) {
+                    contents.set(i, randomBytes(random, 16 * 1024 + random.nextInt(1536 * 1024)));
+                }
+            }
+
+            File archive = tmp.newFile("current-" + seed + ".zip");
+            BundleManifest current = buildArchive(archive, contents);
+            List<DeltaUploader.Part> parts = deltaUploader.plan(previous, current);
+
+            assertNotNull(parts);
+            assertValidPlan(parts, current.getSize());
+
+            // Copied parts must hold the very same bytes in the previous archive
+            byte[] previousBytes = Files.readAllBytes(previousArchive.toPath());
+            byte[] currentBytes = Files.readAllBytes(archive.toPath());
+
+            for (DeltaUploader.Part part : parts) {
+                if (part.isCopy()) {
+                    int from = (int) part.sourceOffset;
+                    int position = (int) part.getPosition();
+
+                    assertArrayEquals(Arrays.copyOfRange(currentBytes, position, (int) part.getEnd()),
+                            Arrays.copyOfRange(previousBytes, from, from + (int) part.getLength()));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void nothingToReuseWhenEveryEntryChanged() throws IOException {
+        Random random = new Random(7L);
+        BundleManifest previous = buildArchive(tmp.newFile("v1.zip"), randomContents(random, 4, 3 * MiB, 3 * MiB));
+        BundleManifest current = buildArchive(tmp.newFile("v2.zip"), randomContents(random, 4, 3 * MiB, 3 * MiB));
+        List<DeltaUploader.Part> parts = deltaUploader.plan(previous, current);
+
+        // Which makes the caller upload it whole
+        assertEquals(0L, DeltaUploader.getCopiedBytes(parts));
+        assertValidPlan(parts, current.getSize());
+    }
+
+    @Test
+    public void failsWithoutLeftoversWhenThePreviousBundleChanged() throws IOException {
+        Random random = new Random(11L);
+        List<byte[]> contents = randomContents(random, 4, 4 * MiB, 4 * MiB);
+        BundleManifest previous = uploadWhole("v1.zip", contents);
+
+        // Overwritten since its manifest was recorded
+        s3.putObject(BUCKET, "v1.zip", new ByteArrayInputStream(new byte[16]), new ObjectMetadata());
+
+        contents.set(3, randomBytes(random, MiB));
+
+        File archive = tmp.newFile("v2.zip");
+        BundleManifest current = buildArchive(archive, contents);
+        List<DeltaUploader.Part> parts = deltaUploader.plan(previous, current);
+
+        try {
+            deltaUploader.upload(archive, BUCKET, "v2.zip", new ObjectMetadata(), previous, parts);
+
+            fail("should fail, so the archive gets uploaded whole");
+        } catch (IOException expected) {
+            // Expected
+        }
+
+        assertNull(s3.getBytes(BUCKET, "v2.zip"));
+        assertEquals(0, s3.getPendingUploads());
+    }
+
+    @Test
+    public void manifestRoundTrips() throws IOException {
+        BundleManifest manifest = buildArchive(tmp.newFile("v1.zip"), randomContents(new Random(3L), 3, 10, 1000));
+
+        manifest.setLocation(BUCKET, "v1.zip", "etag");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        manifest.write(out);
+
+        BundleManifest read = BundleManifest.read(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals("v1.zip", read.getObjectKey());
+        assertEquals("etag", read.getETag());
+        assertEquals(manifest.getSize(), read.getSize());
+        assertEquals(manifest.getRecords().size(), read.getRecords().size());
+
+        for (int i = 0; i < manifest.getRecords().size(); i++) {
+            BundleManifest.Record record = manifest.getRecords().get(i);
+
+            assertTrue(record.sameContentsAs(read.getRecords().get(i)));
+            assertEquals(64, record.getDigest().length());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOlderManifests() throws IOException {
+        BundleManifest.read(new ByteArrayInputStream(("# awseb-deployment bundle manifest v1\n" +
+                "entry\t0\t10\t0000abcd\tfoo\n").getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void recordsDifferingInContentsAreNotTheSame() {
+        BundleManifest.Record record = new BundleManifest.Record("a", 0, 10, "00");
+
+        assertTrue(record.sameContentsAs(new BundleManifest.Record("a", 100, 10, "00")));
+        assertFalse(record.sameContentsAs(new BundleManifest.Record("a", 0, 10, "01")));
+        assertFalse(record.sameContentsAs(new BundleManifest.Record("b", 0, 10, "00")));
+        assertFalse(record.sameContentsAs(null));
+    }
+
+    /**
+     * Parts must cover the whole archive, in order, and all but the last hold at least 5 MiB
+     */
+    private static void assertValidPlan(List<DeltaUploader.Part> parts, long size) {
+        long position = 0L;
+
+        for (int i = 0; i < parts.size(); i++) {
+            DeltaUploader.Part part = parts.get(i);
+
+            assertEquals("part " + i + " position", position, part.getPosition());
+
+            if (i + 1 < parts.size()) {
+                assertTrue("part " + i + " has " + part.getLength() + " bytes",
+                        part.getLength() >= DeltaUploader.MIN_PART_SIZE);
+            }
+
+            position = part.getEnd();
+        }
+
+        assertEquals(size, position);
+    }
+
+    private BundleManifest uploadWhole(String key, List<byte[]> contents) throws IOException {
+        File archive = tmp.newFile(key);
+        BundleManifest result = buildArchive(archive, contents);
+
+        s3.putObject(BUCKET, key, archive);
+
+        result.setLocation(BUCKET, key, s3.getObjectMetadata(BUCKET, key).getETag());
+
+        return result;
+    }
+
+    private static BundleManifest buildArchive(File archive, List<byte[]> contents) throws IOException {
+        ZipArchiveWriter writer;
+
+        try (OutputStream out = new FileOutputStream(archive)) {
+            writer = new ZipArchiveWriter(out);
+
+            for (int i = 0; i < contents.size(); i++) {
+                writer.write(ZipArchiveWriter.Entry.normalized("entry-" + i, 0644),
+                        new ByteArrayInputStream(contents.get(i)), 0);
+            }
+
+            writer.finish();
+        }
+
+        return BundleManifest.fromArchive(archive, writer.getEntries(), writer.getCentralDirectoryOffset());
+    }
+
+    private static List<byte[]> randomContents(Random random, int count, int minSize, int maxSize) {
+        List<byte[]> result = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            result.add(randomBytes(random, minSize + ((maxSize > minSize) ? random.nextInt(maxSize - minSize) : 0)));
+        }
+
+        return result;
+    }
+
+    private static byte[] randomBytes(Random random, int size) {
+        byte[] result = new byte[size];
+
+        random.nextBytes(result);
+
+        return result;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd;
+
+import br.com.ingenieux.jenkins.plugins.awsebdeployment.AWSEBDeploymentConfig;
+import br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd.DeployerContext.Key;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DeployerChainTest {
+    private final List<String> performed = Collections.synchronizedList(new ArrayList<String>());
+
+    private final List<String> released = Collections.synchronizedList(new ArrayList<String>());
+
+    @Test
+    public void releasesEveryStartedCommandInReverseOrder() throws Exception {
+        DeployerChain chain = chainOf(
+                new Step("logger", null, EnumSet.of(Key.Logger)),
+                new Step("clients", EnumSet.of(Key.Logger), EnumSet.of(Key.Clients)),
+                new Step("upload", EnumSet.of(Key.Clients), EnumSet.of(Key.Bundle)),
+                new Step("lookup", EnumSet.of(Key.Clients), EnumSet.of(Key.EnvironmentId)),
+                new Step("version", EnumSet.of(Key.Bundle), EnumSet.of(Key.ApplicationVersion)),
+                new Step("success", null, EnumSet.of(Key.Success)));
+
+        assertFalse(chain.perform());
+
+        assertEquals(6, performed.size());
+        assertEquals(Arrays.asList("success", "version", "lookup", "upload", "clients", "logger"), released);
+    }
+
+    @Test
+    public void commandsBeforeAnAbortedOneAreStillPerformed() throws Exception {
+        final CountDownLatch aborted = new CountDownLatch(1);
+
+        Step upload = new Step("upload", EnumSet.of(Key.Logger), EnumSet.of(Key.Bundle)) {
+            @Override
+            public boolean perform() throws Exception {
+                // Still uploading when the lookup aborts
+                assertTrue(aborted.await(10, TimeUnit.SECONDS));
+
+                return super.perform();
+            }
+        };
+
+        Step lookup = new Step("lookup", EnumSet.of(Key.Logger), EnumSet.of(Key.EnvironmentId)) {
+            @Override
+            public boolean perform() throws Exception {
+                super.perform();
+
+                aborted.countDown();
+
+                return true;
+            }
+        };
+
+        DeployerChain chain = chainOf(
+                new Step("logger", null, EnumSet.of(Key.Logger)),
+                upload,
+                new Step("version", EnumSet.of(Key.Bundle), EnumSet.of(Key.ApplicationVersion)),
+                lookup,
+                new Step("update", EnumSet.of(Key.ApplicationVersion, Key.EnvironmentId),
+                        EnumSet.of(Key.EnvironmentUpdated)),
+                new Step("success", null, EnumSet.of(Key.Success)));
+
+        assertTrue(chain.perform());
+
+        assertEquals(Arrays.asList("logger", "lookup", "upload", "version"), performed);
+        assertEquals(Arrays.asList("lookup", "version", "upload", "logger"), released);
+    }
+
+    @Test
+    public void failuresAreThrownOnceEveryStartedCommandIsReleased() throws Exception {
+        final Exception failure = new Exception("Boom");
+
+        DeployerChain chain = chainOf(
+                new Step("logger", null, EnumSet.of(Key.Logger)),
+                new Step("upload", EnumSet.of(Key.Logger), EnumSet.of(Key.Bundle)) {
+                    @Override
+                    public boolean perform() throws Exception {
+                        super.perform();
+
+                        throw failure;
+                    }
+                },
+                new Step("version", EnumSet.of(Key.Bundle), EnumSet.of(Key.ApplicationVersion)));
+
+        try {
+            chain.perform();
+
+            fail("Expected the failure to be thrown");
+        } catch (Exception e) {
+            assertSame(failure, e);
+        }
+
+        assertEquals(Arrays.asList("logger", "upload"), performed);
+        assertEquals(Arrays.asList("upload", "logger"), released);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void failsWhenRequirementsCanNeverBeMet() throws Exception {
+        chainOf(new Step("version", EnumSet.of(Key.Bundle), EnumSet.of(Key.ApplicationVersion))).perform();
+    }
+
+    private DeployerChain chainOf(DeployerCommand... commands) {
+        AWSEBDeploymentConfig config = AWSEBDeploymentConfig.builder()
+                .applicationName("app")
+                .environmentName("env")
+                .build();
+
+        return new DeployerChain(new DeployerContext(config, null, null), Arrays.asList(commands));
+    }
+
+    /**
+     * Records when it's performed and released
+     */
+    private class Step extends DeployerCommand {
+        private final String name;
+
+        private final Set<Key> requires;
+
+        private final Set<Key> provides;
+
+        Step(String name, Set<Key> requires, Set<Key> provides) {
+            this.name = name;
+            this.requires = requires;
+            this.provides = provides;
+        }
+
+        @Override
+        public Set<Key> requires() {
+            return requires;
+        }
+
+        @Override
+        public Set<Key> provides() {
+            return provides;
+        }
+
+        @Override
+        public boolean perform() throws Exception {
+            performed.add(name);
+
+            return false;
+        }
+
+        @Override
+        public boolean release() throws Exception {
+            released.add(name);
+
+            return false;
+        }
+    }
+}
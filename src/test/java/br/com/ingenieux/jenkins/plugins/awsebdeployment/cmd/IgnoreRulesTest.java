@@ -0,0 +1,144 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class IgnoreRulesTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void skipsCommentsAndBlankLines() {
+        IgnoreRules rules = rules("# comment", "", "   ", "*.log", "!");
+
+        assertEquals(1, rules.size());
+    }
+
+    @Test
+    public void unanchoredRulesMatchAtAnyLevel() {
+        IgnoreRules rules = rules("*.log", "node_modules");
+
+        assertTrue(rules.isIgnored("debug.log", false));
+        assertTrue(rules.isIgnored("logs/debug.log", false));
+        assertTrue(rules.isIgnored("node_modules", true));
+        assertTrue(rules.isIgnored("a/b/node_modules", true));
+        assertFalse(rules.isIgnored("debug.log.gz", false));
+        assertFalse(rules.isIgnored("node_modules_backup", true));
+    }
+
+    @Test
+    public void rulesWithASlashAreAnchoredToTheRoot() {
+        IgnoreRules rules = rules("/build", "config/local.json");
+
+        assertTrue(rules.isIgnored("build", true));
+        assertFalse(rules.isIgnored("src/build", true));
+        assertTrue(rules.isIgnored("config/local.json", false));
+        assertFalse(rules.isIgnored("app/config/local.json", false));
+    }
+
+    @Test
+    public void trailingSlashMatchesDirectoriesOnly() {
+        IgnoreRules rules = rules("tmp/");
+
+        assertTrue(rules.isIgnored("tmp", true));
+        assertTrue(rules.isIgnored("a/tmp", true));
+        assertFalse(rules.isIgnored("tmp", false));
+    }
+
+    @Test
+    public void lastMatchingRuleWins() {
+        IgnoreRules rules = rules("*.json", "!package.json", "/package.json");
+
+        assertTrue(rules.isIgnored("data.json", false));
+        assertFalse(rules.isIgnored("lib/package.json", false));
+        assertTrue(rules.isIgnored("package.json", false));
+
+        rules = rules("!keep.txt", "*.txt");
+
+        assertTrue(rules.isIgnored("keep.txt", false));
+    }
+
+    @Test
+    public void supportsDoubleAsterisks() {
+        IgnoreRules rules = rules("**/cache", "docs/**", "a/**/z");
+
+        assertTrue(rules.isIgnored("cache", true));
+        assertTrue(rules.isIgnored("x/y/cache", true));
+        assertTrue(rules.isIgnored("docs/a/b.md", false));
+        assertFalse(rules.isIgnored("docs", true));
+        assertTrue(rules.isIgnored("a/z", false));
+        assertTrue(rules.isIgnored("a/b/c/z", false));
+        assertFalse(rules.isIgnored("ab/z", false));
+    }
+
+    @Test
+    public void supportsWildcardsAndCharacterClasses() {
+        IgnoreRules rules = rules("file?.txt", "*.py[co]", "[!a]*.md", "*.min.js");
+
+        assertTrue(rules.isIgnored("file1.txt", false));
+        assertFalse(rules.isIgnored("file10.txt", false));
+        assertTrue(rules.isIgnored("app.pyc", false));
+        assertFalse(rules.isIgnored("app.py", false));
+        assertTrue(rules.isIgnored("README.md", false));
+        assertFalse(rules.isIgnored("about.md", false));
+        assertTrue(rules.isIgnored("lib/app.min.js", false));
+        assertFalse(rules.isIgnored("lib/appXminXjs", false));
+        assertFalse(rules.isIgnored("a/b.txt", false));
+    }
+
+    @Test
+    public void supportsEscapes() {
+        IgnoreRules rules = rules("\\#notes", "\\!important", "trailing\\ ");
+
+        assertTrue(rules.isIgnored("#notes", false));
+        assertTrue(rules.isIgnored("!important", false));
+        assertTrue(rules.isIgnored("trailing ", false));
+    }
+
+    @Test
+    public void loadsFromAFile() throws IOException {
+        File file = new File(tmp.getRoot(), IgnoreRules.EBIGNORE);
+
+        assertNull(IgnoreRules.load(file));
+
+        Files.write(file.toPath(), "# Ignored\nnode_modules/\n*.log   \n".getBytes(StandardCharsets.UTF_8));
+
+        IgnoreRules rules = IgnoreRules.load(file);
+
+        assertEquals(2, rules.size());
+        assertTrue(rules.isIgnored("server.log", false));
+    }
+
+    private static IgnoreRules rules(String... lines) {
+        return IgnoreRules.parse(Arrays.asList(lines));
+    }
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd;
+
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.CopyPartResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Offline S3 stand-in: keeps objects in memory, and supports (ranged) part copies in Multipart Uploads, along with
+ * ETag constraints and the minimum part size
+ */
+public class InMemoryS3 extends AbstractAmazonS3 {
+    static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+
+    private final Map<String, StoredObject> objects = new HashMap<>();
+
+    private final Map<String, Upload> uploads = new HashMap<>();
+
+    private final AtomicLong bytesUploaded = new AtomicLong();
+
+    private final AtomicLong bytesCopied = new AtomicLong();
+
+    /**
+     * Bytes sent (i.e. PUTs and uploaded parts)
+     */
+    public long getBytesUploaded() {
+        return bytesUploaded.get();
+    }
+
+    /**
+     * Bytes copied server-side (i.e. copied parts)
+     */
+    public long getBytesCopied() {
+        return bytesCopied.get();
+    }
+
+    public synchronized byte[] getBytes(String bucketName, String key) {
+        StoredObject object = objects.get(bucketName + "/" + key);
+
+        return (null != object) ? object.data.clone() : null;
+    }
+
+    public synchronized int getPendingUploads() {
+        return uploads.size();
+    }
+
+    @Override
+    public synchronized PutObjectResult putObject(PutObjectRequest req) {
+        byte[] data;
+
+        try {
+            data = (null != req.getFile()) ? read(new FileInputStream(req.getFile()), -1) :
+                    read(req.getInputStream(), -1);
+        } catch (IOException exc) {
+            throw new IllegalStateException(exc);
+        }
+
+        bytesUploaded.addAndGet(data.length);
+
+        StoredObject object = new StoredObject(data, toHex(md5(data)), req.getMetadata());
+
+        objects.put(req.getBucketName() + "/" + req.getKey(), object);
+
+        PutObjectResult result = new PutObjectResult();
+
+        result.setETag(object.eTag);
+
+        return result;
+    }
+
+    @Override
+    public PutObjectResult putObject(String bucketName, String key, File file) {
+        return putObject(new PutObjectRequest(bucketName, key, file));
+    }
+
+    @Override
+    public PutObjectResult putObject(String bucketName, String key, InputStream input, ObjectMetadata metadata) {
+        return putObject(new PutObjectRequest(bucketName, key, input, metadata));
+    }
+
+    @Override
+    public synchronized ObjectMetadata getObjectMetadata(String bucketName, String key) {
+        StoredObject object = lookup(bucketName, key);
+        ObjectMetadata result = (null != object.metadata) ? object.metadata.clone() : new ObjectMetadata();
+
+        result.setHeader("ETag", object.eTag);
+        result.setContentLength(object.data.length);
+
+        return result;
+    }
+
+    @Override
+    public synchronized S3Object getObject(String bucketName, String key) {
+        StoredObject object = lookup(bucketName, key);
+        S3Object result = new S3Object();
+
+        result.setBucketName(bucketName);
+        result.setKey(key);
+        result.setObjectContent(new ByteArrayInputStream(object.data));
+
+        return result;
+    }
+
+    @Override
+    public synchronized InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest req) {
+        String uploadId = UUID.randomUUID().toString();
+
+        uploads.put(uploadId, new Upload(req.getBucketName(), req.getKey(), req.getObjectMetadata()));
+
+        InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+
+        result.setBucketName(req.getBucketName());
+        result.setKey(req.getKey());
+        result.setUploadId(uploadId);
+
+        return result;
+    }
+
+    @Override
+    public UploadPartResult uploadPart(UploadPartRequest req) {
+        byte[] data;
+
+        try {
+            data = (null != req.getFile()) ? readRange(req.getFile(), req.getFileOffset(), req.getPartSize()) :
+                    read(req.getInputStream(), req.getPartSize());
+        } catch (IOException exc) {
+            throw new IllegalStateException(exc);
+        }
+
+        bytesUploaded.addAndGet(data.length);
+
+        UploadPartResult result = new UploadPartResult();
+
+        result.setPartNumber(req.getPartNumber());
+        result.setETag(putPart(req.getUploadId(), req.getPartNumber(), data));
+
+        return result;
+    }
+
+    /**
+     * Returns null when an ETag constraint isn't met, just like the actual client does
+     */
+    @Override
+    public CopyPartResult copyPart(CopyPartRequest req) {
+        byte[] data;
+
+        synchronized (this) {
+            StoredObject source = lookup(req.getSourceBucketName(), req.getSourceKey());
+            List<String> matchingETags = req.getMatchingETagConstraints();
+
+            if (null != matchingETags && !matchingETags.isEmpty() && !matchingETags.contains(source.eTag)) {
+                return null;
+            }
+
+            int firstByte = (null != req.getFirstByte()) ? req.getFirstByte().intValue() : 0;
+            int lastByte = (null != req.getLastByte()) ? req.getLastByte().intValue() : source.data.length - 1;
+
+            if (firstByte < 0 || lastByte >= source.data.length || lastByte < firstByte) {
+                throw error(416, "InvalidRange", "Invalid range " + firstByte + "-" + lastByte);
+            }
+
+            data = Arrays.copyOfRange(source.data, firstByte, lastByte + 1);
+        }
+
+        bytesCopied.addAndGet(data.length);
+
+        CopyPartResult result = new CopyPartResult();
+
+        result.setPartNumber(req.getPartNumber());
+        result.setETag(putPart(req.getUploadId(), req.getPartNumber(), data));
+
+        return result;
+    }
+
+    @Override
+    public synchronized CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest req) {
+        Upload upload = uploads.get(req.getUploadId());
+
+        if (null == upload) {
+            throw error(404, "NoSuchUpload", "No such upload: " + req.getUploadId());
+        }
+
+        List<PartETag> partETags = req.getPartETags();
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        ByteArrayOutputStream digests = new ByteArrayOutputStream();
+
+        for (int i = 0; i < partETags.size(); i++) {
+            PartETag partETag = partETags.get(i);
+            byte[] part = upload.parts.get(partETag.getPartNumber());
+
+            if (null == part || !toHex(md5(part)).equals(partETag.getETag())) {
+                throw error(400, "InvalidPart", "Invalid part " + partETag.getPartNumber());
+            }
+
+            if (i > 0 && partETags.get(i - 1).getPartNumber() >= partETag.getPartNumber()) {
+                throw error(400, "InvalidPartOrder", "Parts out of order");
+            }
+
+            if (i + 1 < partETags.size() && part.length < MIN_PART_SIZE) {
+                throw error(400, "EntityTooSmall", "Part " + partETag.getPartNumber() + " has " + part.length +
+                        " bytes");
+            }
+
+            data.write(part, 0, part.length);
+
+            byte[] partDigest = md5(part);
+
+            digests.write(partDigest, 0, partDigest.length);
+        }
+
+        uploads.remove(req.getUploadId());
+
+        String eTag = toHex(md5(digests.toByteArray())) + "-" + partETags.size();
+
+        objects.put(upload.bucketName + "/" + upload.key, new StoredObject(data.toByteArray(), eTag,
+                upload.metadata));
+
+        CompleteMultipartUploadResult result = new CompleteMultipartUploadResult();
+
+        result.setBucketName(upload.bucketName);
+        result.setKey(upload.key);
+        result.setETag(eTag);
+
+        return result;
+    }
+
+    @Override
+    public synchronized void abortMultipartUpload(AbortMultipartUploadRequest req) {
+        uploads.remove(req.getUploadId());
+    }
+
+    private synchronized String putPart(String uploadId, int partNumber, byte[] data) {
+        Upload upload = uploads.get(uploadId);
+
+        if (null == upload) {
+            throw error(404, "NoSuchUpload", "No such upload: " + uploadId);
+        }
+
+        upload.parts.put(partNumber, data);
+
+        return toHex(md5(data));
+    }
+
+    private StoredObject lookup(String bucketName, String key) {
+        StoredObject object = objects.get(bucketName + "/" + key);
+
+        if (null == object) {
+            throw error(404, "NoSuchKey", "No such key: " + bucketName + "/" + key);
+        }
+
+        return object;
+    }
+
+    private static AmazonS3Exception error(int statusCode, String errorCode, String message) {
+        AmazonS3Exception result = new AmazonS3Exception(message);
+
+        result.setStatusCode(statusCode);
+        result.setErrorCode(errorCode);
+
+        return result;
+    }
+
+    private static byte[] read(InputStream in, long length) throws IOException {
+        try (InputStream is = in) {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            byte[] buf = new byte[64 * 1024];
+            long remaining = (length >= 0) ? length : Long.MAX_VALUE;
+            int n;
+
+            while (remaining > 0 && -1 != (n = is.read(buf, 0, (int) Math.min(buf.length, remaining)))) {
+                result.write(buf, 0, n);
+
+                remaining -= n;
+            }
+
+            return result.toByteArray();
+        }
+    }
+
+    private static byte[] readRange(File file, long offset, long length) throws IOException {
+        InputStream in = new FileInputStream(file);
+
+        if (in.skip(offset) != offset) {
+            in.close();
+
+            throw new IOException("Unable to skip to " + offset);
+        }
+
+        return read(in, length);
+    }
+
+    private static byte[] md5(byte[] data) {
+        try {
+            return MessageDigest.getInstance("MD5").digest(data);
+        } catch (NoSuchAlgorithmException exc) {
+            throw new IllegalStateException(exc);
+        }
+    }
+
+    private static String toHex(byte[] hash) {
+        StringBuilder result = new StringBuilder(2 * hash.length);
+
+        for (byte b : hash) {
+            result.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return result.toString();
+    }
+
+    static class StoredObject {
+        final byte[] data;
+
+        final String eTag;
+
+        final ObjectMetadata metadata;
+
+        StoredObject(byte[] data, String eTag, ObjectMetadata metadata) {
+            this.data = data;
+            this.eTag = eTag;
+            this.metadata = metadata;
+        }
+    }
+
+    static class Upload {
+        final String bucketName;
+
+        final String key;
+
+        final ObjectMetadata metadata;
+
+        final Map<Integer, byte[]> parts = new TreeMap<>();
+
+        Upload(String bucketName, String key, ObjectMetadata metadata) {
+            this.bucketName = bucketName;
+            this.key = key;
+            this.metadata = metadata;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd.PollScheduler.MIN_INTERVAL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PollSchedulerTest {
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    @Test
+    public void backsOffExponentiallyWithEqualJitter() {
+        PollScheduler scheduler = new PollScheduler(8 * MIN_INTERVAL, HOUR);
+
+        long interval = MIN_INTERVAL;
+
+        for (int i = 0; i < 10; i++) {
+            assertBetween(interval / 2, interval, scheduler.nextDelay());
+
+            interval = Math.min(8 * MIN_INTERVAL, 2 * interval);
+        }
+    }
+
+    @Test
+    public void resetGoesBackToTheShortestInterval() {
+        PollScheduler scheduler = new PollScheduler(HOUR, HOUR);
+
+        for (int i = 0; i < 5; i++) {
+            scheduler.nextDelay();
+        }
+
+        scheduler.reset();
+
+        assertBetween(MIN_INTERVAL / 2, MIN_INTERVAL, scheduler.nextDelay());
+    }
+
+    @Test
+    public void neverPollsMoreOftenThanTheMinimumInterval() {
+        PollScheduler scheduler = new PollScheduler(1, HOUR);
+
+        for (int i = 0; i < 5; i++) {
+            assertBetween(MIN_INTERVAL / 2, MIN_INTERVAL, scheduler.nextDelay());
+        }
+    }
+
+    @Test
+    public void neverWaitsPastTheDeadline() {
+        PollScheduler scheduler = new PollScheduler(HOUR, 1000);
+
+        assertFalse(scheduler.isExpired());
+        assertBetween(0, 1000, scheduler.getRemaining());
+
+        for (int i = 0; i < 5; i++) {
+            assertBetween(0, 1000, scheduler.nextDelay());
+        }
+    }
+
+    @Test
+    public void expiresAtTheDeadline() {
+        PollScheduler scheduler = new PollScheduler(HOUR, 0);
+
+        assertTrue(scheduler.isExpired());
+        assertEquals(0, scheduler.getRemaining());
+        assertEquals(0, scheduler.nextDelay());
+    }
+
+    private static void assertBetween(long min, long max, long value) {
+        assertTrue(value + " not in [" + min + ", " + max + "]", min <= value && value <= max);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd.RollingUpdate.waveSizes;
+import static org.junit.Assert.assertEquals;
+
+public class RollingUpdateTest {
+    @Test
+    public void everythingInOneWaveByDefault() {
+        assertEquals(Arrays.asList(5), waveSizes(null, 5));
+        assertEquals(Arrays.asList(5), waveSizes(" ", 5));
+    }
+
+    @Test
+    public void leftoversGoIntoALastWave() {
+        assertEquals(Arrays.asList(1, 2, 7), waveSizes("1,2", 10));
+        assertEquals(Arrays.asList(1, 2), waveSizes("1, 2", 3));
+    }
+
+    @Test
+    public void percentagesRoundUp() {
+        assertEquals(Arrays.asList(1, 3, 6), waveSizes("10%,25%", 10));
+        assertEquals(Arrays.asList(1, 2), waveSizes("1%", 3));
+        assertEquals(Arrays.asList(3), waveSizes("100%", 3));
+    }
+
+    @Test
+    public void wavesNeverExceedWhatIsLeft() {
+        assertEquals(Arrays.asList(2, 1), waveSizes("2,5,5", 3));
+        assertEquals(Arrays.asList(2, 2), waveSizes("50%,50%,50%", 4));
+    }
+
+    @Test
+    public void skipsEmptyElements() {
+        assertEquals(Arrays.asList(1, 1, 1), waveSizes("1,,1,", 3));
+    }
+
+    @Test
+    public void noWavesWithoutEnvironments() {
+        assertEquals(Collections.<Integer>emptyList(), waveSizes("1,25%", 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZero() {
+        waveSizes("0", 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsPercentagesOverOneHundred() {
+        waveSizes("150%", 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsGarbage() {
+        waveSizes("1,two", 3);
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd;
+
+import hudson.util.DirScanner;
+import hudson.util.FileVisitor;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WorkspaceScannerTest {
+    private static final String[] FILES = {
+            "index.js", "package.json", "README.md", "Procfile", ".gitignore", "#scratch#", "notes.txt~",
+            ".git/config", ".git/objects/ab/cdef",
+            ".ebextensions/01-packages.config", ".ebextensions/nested/02-files.config",
+            "src/app.js", "src/app.js~", "src/lib/util.js", "src/lib/deep/er/util.js", "src/CVS/Entries",
+            "node_modules/a/index.js", "node_modules/a/node_modules/b/index.js",
+            "docs/guide.md", "docs/img/logo.png",
+            "build/out/app.war", "build/out/app.jar", "build/tmp/x.class"
+    };
+
+    /**
+     * Includes and Excludes, as given to DirScanner.Glob
+     */
+    private static final String[][] PATTERNS = {
+            {"", ""},
+            {"**/*", ""},
+            {"**", null},
+            {"**", "**/node_modules/**"},
+            {"src/**/*.js", ""},
+            {"**/*.js", "node_modules/"},
+            {"build/out/*.war, .ebextensions/**", null},
+            {"*", "*.md"},
+            {"src/", ""},
+            {"**/lib/**", ""},
+            {"", "**/*.md,docs/**"},
+            {"?ndex.js", ""},
+            {"node_modules/*/index.js", ""},
+            {"**/*.config", "**/nested/**"},
+            {"build/**/*.*", "**/tmp"},
+            {"src/**/util.js", "src/lib/deep/**"},
+            {".git/**", ""},
+    };
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File root;
+
+    @Before
+    public void setUp() throws IOException {
+        root = tmp.getRoot();
+
+        for (String path : FILES) {
+            File file = new File(root, path);
+
+            assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+            assertTrue(file.createNewFile());
+        }
+    }
+
+    @Test
+    public void selectsTheSameFilesAsGlob() throws IOException {
+        for (String[] pattern : PATTERNS) {
+            String description = Arrays.toString(pattern);
+
+            assertEquals(description, scan(new DirScanner.Glob(pattern[0], pattern[1])),
+                    scan(WorkspaceScanner.asDirScanner(pattern[0], pattern[1])));
+        }
+    }
+
+    @Test
+    public void selectsEverythingWithoutPatterns() throws IOException {
+        SortedSet<String> expected = new TreeSet<>(Arrays.asList(FILES));
+
+        assertEquals(expected, scan(WorkspaceScanner.asDirScanner(null, null)));
+        assertEquals(expected, scan(WorkspaceScanner.asDirScanner("", null)));
+    }
+
+    @Test
+    public void prunesExcludedDirectories() throws IOException {
+        WorkspaceScanner scanner = new WorkspaceScanner("**", "**/node_modules/**");
+
+        scanner.scan(root, new FileVisitor() {
+            @Override
+            public void visit(File f, String relativePath) {
+                assertFalse(relativePath, relativePath.startsWith("node_modules/"));
+            }
+        });
+
+        // node_modules, as well as .git and src/CVS (from the default excludes)
+        assertEquals(3, scanner.getPrunedDirectories());
+    }
+
+    @Test
+    public void appliesIgnoreRules() throws IOException {
+        WorkspaceScanner scanner = new WorkspaceScanner("**/*.js", "");
+
+        scanner.setIgnoreRules(IgnoreRules.parse(Arrays.asList("/index.js", "node_modules/", "src/lib/**", "!src/lib/util.js")));
+
+        SortedSet<String> result = new TreeSet<>();
+
+        scanner.scan(root, collector(result));
+
+        // src/lib itself isn't ignored (only its contents), so src/lib/util.js may be re-included
+        assertEquals(new TreeSet<>(Arrays.asList("src/app.js", "src/lib/util.js")), result);
+        assertEquals(1, scanner.getIgnoredFiles());
+
+        // node_modules and src/lib/deep, as well as .git and src/CVS
+        assertEquals(4, scanner.getPrunedDirectories());
+    }
+
+    @Test
+    public void scanningAMissingDirectoryFindsNothing() throws IOException {
+        SortedSet<String> result = new TreeSet<>();
+
+        new WorkspaceScanner("**", "").scan(new File(root, "missing"), collector(result));
+
+        assertEquals(Collections.<String>emptySet(), result);
+    }
+
+    @Test
+    public void matchesAntPatterns() {
+        assertTrue(new AntPattern("**/*.js").matches("index.js"));
+        assertTrue(new AntPattern("**/*.js").matches("a/b/c.js"));
+        assertFalse(new AntPattern("*.js").matches("a/c.js"));
+        assertTrue(new AntPattern("a/**/b").matches("a/b"));
+        assertTrue(new AntPattern("a/**/b").matches("a/x/y/b"));
+        assertFalse(new AntPattern("a/**/b").matches("ab"));
+        assertTrue(new AntPattern("src/").matches("src/a/b"));
+        assertFalse(new AntPattern("src/").matches("srcs/a"));
+        assertTrue(new AntPattern("?ndex.js").matches("index.js"));
+        assertFalse(new AntPattern("?ndex.js").matches("a/ndex.js"));
+        assertTrue(new AntPattern("a.b+c").matches("a.b+c"));
+        assertFalse(new AntPattern("a.b+c").matches("aXb+c"));
+        assertTrue(new AntPattern("dir\\*.txt").matches("dir/a.txt"));
+    }
+
+    @Test
+    public void tellsWhichDirectoriesAreWorthVisiting() {
+        assertTrue(new AntPattern("src/**/*.js").matchesStart(Arrays.asList("src", "lib")));
+        assertFalse(new AntPattern("src/**/*.js").matchesStart(Arrays.asList("docs")));
+        assertTrue(new AntPattern("*/index.js").matchesStart(Arrays.asList("a")));
+        assertFalse(new AntPattern("*/index.js").matchesStart(Arrays.asList("a", "b")));
+
+        assertTrue(new AntPattern("**/node_modules/**").matchesContentsOf("node_modules"));
+        assertTrue(new AntPattern("**/node_modules/**").matchesContentsOf("a/b/node_modules"));
+        assertFalse(new AntPattern("**/node_modules/**").matchesContentsOf("a/node_modules/b"));
+        assertFalse(new AntPattern("**/node_modules").matchesContentsOf("node_modules"));
+    }
+
+    @Test
+    public void parsesCommaSeparatedPatterns() {
+        assertEquals("[a/**, *.js]", AntPattern.parse(" a/** ,, *.js ").toString());
+        assertEquals(0, AntPattern.parse((String) null).size());
+    }
+
+    private SortedSet<String> scan(DirScanner scanner) throws IOException {
+        SortedSet<String> result = new TreeSet<>();
+
+        scanner.scan(root, collector(result));
+
+        return result;
+    }
+
+    /**
+     * Collects the relative paths of files (DirScanner.Full visits directories as well)
+     */
+    private static FileVisitor collector(final SortedSet<String> result) {
+        return new FileVisitor() {
+            @Override
+            public void visit(File f, String relativePath) {
+                if (f.isFile()) {
+                    result.add(relativePath);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2011 ingenieux Labs
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package br.com.ingenieux.jenkins.plugins.awsebdeployment.cmd;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class ZipArchiveWriterTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void writesReadableArchive() throws IOException {
+        File file = new File(tmp.getRoot(), "small.zip");
+
+        try (OutputStream out = new FileOutputStream(file)) {
+            ZipArchiveWriter writer = new ZipArchiveWriter(out);
+
+            writer.write(new ZipArchiveWriter.Entry("a/hello.txt", System.currentTimeMillis(), 0644),
+                    new ByteArrayInputStream("Hello, World".getBytes(StandardCharsets.UTF_8)),
+                    Deflater.DEFAULT_COMPRESSION);
+
+            writer.finish();
+        }
+
+        try (ZipFile zipFile = new ZipFile(file)) {
+            assertEquals(1, zipFile.size());
+            assertEquals("Hello, World", read(zipFile, "a/hello.txt"));
+        }
+    }
+
+    @Test
+    public void writesZip64EndRecordsForManyEntries() throws IOException {
+        int count = 0xFFFF + 10;
+        File file = new File(tmp.getRoot(), "many.zip");
+
+        try (OutputStream out = new FileOutputStream(file)) {
+            ZipArchiveWriter writer = new ZipArchiveWriter(out);
+
+            for (int i = 0; i < count; i++) {
+                writer.write(ZipArchiveWriter.Entry.normalized("f" + i, 0644),
+                        new ByteArrayInputStream(Integer.toString(i).getBytes(StandardCharsets.UTF_8)),
+                        Deflater.BEST_SPEED);
+            }
+
+            writer.finish();
+        }
+
+        try (ZipFile zipFile = new ZipFile(file)) {
+            assertEquals(count, zipFile.size());
+            assertEquals(Integer.toString(count - 1), read(zipFile, "f" + (count - 1)));
+        }
+    }
+
+    private static String read(ZipFile zipFile, String name) throws IOException {
+        ZipEntry entry = zipFile.getEntry(name);
+
+        assertNotNull(name, entry);
+
+        try (InputStream in = zipFile.getInputStream(entry)) {
+            byte[] data = new byte[(int) entry.getSize()];
+            int n = 0;
+
+            while (n < data.length) {
+                n += in.read(data, n, data.length - n);
+            }
+
+            return new String(data, StandardCharsets.UTF_8);
+        }
+    }
+}